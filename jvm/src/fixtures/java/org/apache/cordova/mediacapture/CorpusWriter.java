@@ -0,0 +1,136 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.mediacapture;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static org.apache.cordova.mediacapture.Fixtures.*;
+
+/**
+ * Writes the test corpus in src/test/resources/corpus. The files are
+ * committed, so this only needs to run when one is added or changed:
+ *
+ *     gradle writeCorpus
+ *
+ * The values the tests expect are noted next to each file.
+ */
+public class CorpusWriter {
+
+    public static void main(String[] args) throws IOException {
+        File dir = new File(args[0]);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create " + dir);
+        }
+
+        // mp42, 10.5 s, 1920x1080, avc1.640028 + mp4a.40.2, moov last
+        write(new File(dir, "video-avc-aac.mp4"), mp4("mp42", 1920, 1080, 10500, 4096));
+
+        // The same tracks with the moov first, as after a faststart pass
+        write(new File(dir, "faststart.mp4"), concat(
+                ftyp("isom"),
+                box("moov",
+                        mvhd(1000, 10500),
+                        trak("vide", 1000, 10500, 1920, 1080, avc1(1920, 1080, 0x64, 0x00, 0x28)),
+                        trak("soun", 1000, 10500, 0, 0, mp4a(0x40, 2))),
+                box("mdat", random(4096))));
+
+        // M4A audio only, 3 s of HE-AAC
+        write(new File(dir, "audio-aac.m4a"), concat(
+                ftyp("M4A "),
+                box("mdat", random(2048)),
+                box("moov",
+                        mvhd(44100, 3 * 44100),
+                        trak("soun", 44100, 3 * 44100, 0, 0, mp4a(0x40, 5)))));
+
+        // 3GPP from an old camera: H.263 176x144 without an avcC, AMR audio, 4 s
+        write(new File(dir, "video-h263.3gp"), concat(
+                ftyp("3gp4"),
+                box("mdat", random(1024)),
+                box("moov",
+                        mvhd(600, 2400),
+                        trak("vide", 600, 2400, 176, 144, visualEntry("s263", 176, 144)),
+                        trak("soun", 8000, 32000, 0, 0, box("samr", new byte[28])))));
+
+        // 64 bit mvhd, 65 s at a 90kHz timescale
+        write(new File(dir, "mvhd-v1.mp4"), concat(
+                ftyp("mp42"),
+                box("moov",
+                        mvhd64(90000, 65L * 90000),
+                        trak("vide", 90000, 65L * 90000, 1280, 720, avc1(1280, 720, 0x42, 0xc0, 0x1e)))));
+
+        // No movie duration: the longest track, 6 s of audio, wins over 5 s of video
+        write(new File(dir, "track-duration.mp4"), concat(
+                ftyp("mp42"),
+                box("moov",
+                        mvhd(1000, 0),
+                        trak("vide", 600, 3000, 640, 480, avc1(640, 480, 0x4d, 0x40, 0x1f)),
+                        trak("soun", 44100, 6 * 44100, 0, 0, mp4a(0x40, 2)))));
+
+        // mdat with a 64 bit size before the moov; 2 s, 320x240
+        write(new File(dir, "large-mdat.mp4"), concat(
+                ftyp("mp42"),
+                largeBox("mdat", random(1024)),
+                box("moov",
+                        mvhd(1000, 2000),
+                        trak("vide", 1000, 2000, 320, 240, avc1(320, 240, 0x42, 0xc0, 0x0d)))));
+
+        // Cut off inside the first trak: the mvhd duration survives, 7 s
+        byte[] whole = concat(
+                ftyp("mp42"),
+                box("moov",
+                        mvhd(1000, 7000),
+                        trak("vide", 1000, 7000, 1920, 1080, avc1(1920, 1080, 0x64, 0x00, 0x28))));
+        int cut = ftyp("mp42").length + 8 + mvhd(1000, 7000).length + 40;
+        write(new File(dir, "truncated-moov.mp4"), Arrays.copyOf(whole, cut));
+
+        // A complete file whose tkhd body is 12 bytes, too short for its
+        // width and height: the mvhd duration survives, 8 s
+        write(new File(dir, "short-tkhd.mp4"), concat(
+                ftyp("mp42"),
+                box("moov",
+                        mvhd(1000, 8000),
+                        box("trak", fullBox("tkhd", 0, new byte[8])))));
+
+        // Neither media nor image
+        write(new File(dir, "not-media.txt"), ascii("This is not a media file, just some text.\n"));
+
+        // JPEG 320x240, 8 bit; upright, then EXIF orientation 6 big endian and 8 little endian
+        write(new File(dir, "upright.jpg"), jpeg(320, 240, 1));
+        write(new File(dir, "rotated-be.jpg"), jpeg(320, 240, 6, ByteOrder.BIG_ENDIAN));
+        write(new File(dir, "rotated-le.jpg"), jpeg(320, 240, 8, ByteOrder.LITTLE_ENDIAN));
+        // Ends before the frame header
+        write(new File(dir, "truncated.jpg"), Arrays.copyOf(jpeg(320, 240, 1), 100));
+
+        // PNG 64x48, 8 bit
+        write(new File(dir, "image.png"), png(64, 48));
+        // GIF 64x48, 8 bits per primary
+        write(new File(dir, "image.gif"), gif(64, 48, 8));
+        // WebP 800x600 lossy, 640x480 lossless, 4000x3000 extended
+        write(new File(dir, "lossy.webp"), webpLossy(800, 600));
+        write(new File(dir, "lossless.webp"), webpLossless(640, 480));
+        write(new File(dir, "extended.webp"), webpExtended(4000, 3000));
+        // HEIC grid of 512x512 tiles on a 4032x3024 canvas, 10 bit, three quarter turns (orientation 6)
+        write(new File(dir, "grid.heic"), heif("heic", 3, 10, new int[] { 512, 512 }, new int[] { 4032, 3024 }));
+        // AVIF 1920x1080, no pixi so 8 bit, upright
+        write(new File(dir, "image.avif"), heif("avif", 0, 0, new int[] { 1920, 1080 }));
+    }
+}
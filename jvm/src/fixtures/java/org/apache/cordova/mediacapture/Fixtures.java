@@ -0,0 +1,317 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.mediacapture;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Builds media files for the benchmarks and the test corpus: ISO media
+ * files box by box, and images through ImageIO or as bare headers with
+ * the bits the probes look at.
+ */
+public final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    /**
+     * @return an MP4 with one H.264 video track and one AAC-LC audio track,
+     *         durationMs long, with payloadBytes of mdat before the moov
+     */
+    public static byte[] mp4(String brand, int width, int height, long durationMs, int payloadBytes) {
+        int timescale = 1000;
+        return concat(
+                ftyp(brand),
+                box("mdat", random(payloadBytes)),
+                box("moov",
+                        mvhd(timescale, durationMs),
+                        trak("vide", timescale, durationMs, width, height, avc1(width, height, 0x64, 0x00, 0x28)),
+                        trak("soun", timescale, durationMs, 0, 0, mp4a(0x40, 2))));
+    }
+
+    public static byte[] ftyp(String brand) {
+        return box("ftyp", ascii(brand), u32(0), ascii(brand), ascii("isom"));
+    }
+
+    public static byte[] mvhd(int timescale, long duration) {
+        // version 0: created, modified, timescale, duration, then 80 bytes of rates, matrix and ids
+        return fullBox("mvhd", 0, u32(0), u32(0), u32(timescale), u32(duration), new byte[80]);
+    }
+
+    /**
+     * @return a version 1 mvhd, with 64 bit times and duration
+     */
+    public static byte[] mvhd64(int timescale, long duration) {
+        return fullBox("mvhd", 1, u64(0), u64(0), u32(timescale), u64(duration), new byte[80]);
+    }
+
+    public static byte[] trak(String handler, int timescale, long duration, int width, int height,
+            byte[] sampleEntry) {
+        return box("trak",
+                tkhd(width, height),
+                box("mdia",
+                        fullBox("mdhd", 0, u32(0), u32(0), u32(timescale), u32(duration), new byte[4]),
+                        fullBox("hdlr", 0, u32(0), ascii(handler), new byte[12], new byte[1]),
+                        box("minf",
+                                box("stbl",
+                                        fullBox("stsd", 0, u32(1), sampleEntry)))));
+    }
+
+    public static byte[] tkhd(int width, int height) {
+        // version 0: 72 bytes up to the 16.16 width and height
+        return fullBox("tkhd", 0, new byte[72], u32((long) width << 16), u32((long) height << 16));
+    }
+
+    /**
+     * @return a visual sample entry with no child boxes, like s263
+     */
+    public static byte[] visualEntry(String format, int width, int height) {
+        ByteBuffer entry = ByteBuffer.allocate(78);
+        entry.position(24);
+        entry.putShort((short) width);
+        entry.putShort((short) height);
+        return box(format, entry.array());
+    }
+
+    public static byte[] avc1(int width, int height, int profile, int compatibility, int level) {
+        ByteBuffer entry = ByteBuffer.allocate(78);
+        entry.position(24);
+        entry.putShort((short) width);
+        entry.putShort((short) height);
+        byte[] avcC = box("avcC", new byte[] { 1, (byte) profile, (byte) compatibility, (byte) level, (byte) 0xff });
+        return box("avc1", entry.array(), avcC);
+    }
+
+    public static byte[] mp4a(int objectType, int audioObjectType) {
+        byte[] esds = fullBox("esds", 0,
+                // ES_Descriptor: tag, size, ES_ID, flags
+                new byte[] { 0x03, 0x19, 0, 1, 0 },
+                // DecoderConfigDescriptor: tag, size, object type, 12 bytes of stream info
+                new byte[] { 0x04, 0x11, (byte) objectType }, new byte[12],
+                // DecoderSpecificInfo: tag, size, AudioSpecificConfig
+                new byte[] { 0x05, 0x02, (byte) (audioObjectType << 3), 0x10 });
+        return box("mp4a", new byte[28], esds);
+    }
+
+    public static byte[] box(String type, byte[]... body) {
+        byte[] content = concat(body);
+        return concat(u32(8 + content.length), ascii(type), content);
+    }
+
+    /**
+     * @return a box with a 64 bit size field
+     */
+    public static byte[] largeBox(String type, byte[]... body) {
+        byte[] content = concat(body);
+        return concat(u32(1), ascii(type), u64(16 + content.length), content);
+    }
+
+    public static byte[] fullBox(String type, int version, byte[]... body) {
+        return box(type, concat(new byte[] { (byte) version, 0, 0, 0 }, concat(body)));
+    }
+
+    /**
+     * @return a baseline JPEG from ImageIO, with an Exif APP1 segment
+     *         carrying the orientation unless it is 1
+     */
+    public static byte[] jpeg(int width, int height, int orientation) throws IOException {
+        return jpeg(width, height, orientation, ByteOrder.BIG_ENDIAN);
+    }
+
+    public static byte[] jpeg(int width, int height, int orientation, ByteOrder exifOrder) throws IOException {
+        byte[] jpeg = encode(image(width, height, BufferedImage.TYPE_INT_RGB), "jpeg");
+        if (orientation == 1) {
+            return jpeg;
+        }
+        byte[] rest = new byte[jpeg.length - 2];
+        System.arraycopy(jpeg, 2, rest, 0, rest.length);
+        return concat(new byte[] { (byte) 0xff, (byte) 0xd8 }, app1Orientation(orientation, exifOrder), rest);
+    }
+
+    /**
+     * @return an APP1 segment, marker included, whose IFD0 holds only the
+     *         orientation tag
+     */
+    public static byte[] app1Orientation(int orientation, ByteOrder order) {
+        ByteBuffer tiff = ByteBuffer.allocate(26).order(order);
+        tiff.putShort(order == ByteOrder.BIG_ENDIAN ? (short) 0x4d4d : (short) 0x4949);
+        tiff.putShort((short) 42);
+        tiff.putInt(8);
+        tiff.putShort((short) 1);
+        // tag, type SHORT, count, value
+        tiff.putShort((short) 0x0112).putShort((short) 3).putInt(1).putShort((short) orientation).putShort((short) 0);
+        tiff.putInt(0);
+        byte[] body = concat(ascii("Exif"), new byte[2], tiff.array());
+        return concat(new byte[] { (byte) 0xff, (byte) 0xe1 }, u16(body.length + 2), body);
+    }
+
+    public static byte[] png(int width, int height) throws IOException {
+        return encode(image(width, height, BufferedImage.TYPE_INT_ARGB), "png");
+    }
+
+    /**
+     * @return a GIF89a header and logical screen descriptor with a global
+     *         color table of colorBits per primary
+     */
+    public static byte[] gif(int width, int height, int colorBits) {
+        ByteBuffer head = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+        head.put(ascii("GIF89a"));
+        head.putShort((short) width).putShort((short) height);
+        head.put((byte) (0x80 | (colorBits - 1) << 4 | (colorBits - 1)));
+        return head.array();
+    }
+
+    /**
+     * @return the start of a lossy WebP: RIFF header, VP8 chunk header,
+     *         frame tag, start code and the 14 bit dimensions
+     */
+    public static byte[] webpLossy(int width, int height) {
+        ByteBuffer chunk = ByteBuffer.allocate(10).order(ByteOrder.LITTLE_ENDIAN);
+        chunk.put(new byte[] { 0x30, 0x01, 0x00, (byte) 0x9d, 0x01, 0x2a });
+        chunk.putShort((short) width).putShort((short) height);
+        return webp("VP8 ", chunk.array());
+    }
+
+    /**
+     * @return the start of a lossless WebP: signature byte, then width - 1
+     *         and height - 1 in 14 bits each
+     */
+    public static byte[] webpLossless(int width, int height) {
+        ByteBuffer chunk = ByteBuffer.allocate(5).order(ByteOrder.LITTLE_ENDIAN);
+        chunk.put((byte) 0x2f);
+        chunk.putInt((width - 1) | (height - 1) << 14);
+        return webp("VP8L", chunk.array());
+    }
+
+    /**
+     * @return the start of an extended WebP: flags, then the canvas width
+     *         - 1 and height - 1 in 24 bits each
+     */
+    public static byte[] webpExtended(int width, int height) {
+        ByteBuffer chunk = ByteBuffer.allocate(10).order(ByteOrder.LITTLE_ENDIAN);
+        chunk.putInt(0);
+        chunk.put((byte) (width - 1)).put((byte) ((width - 1) >> 8)).put((byte) ((width - 1) >> 16));
+        chunk.put((byte) (height - 1)).put((byte) ((height - 1) >> 8)).put((byte) ((height - 1) >> 16));
+        return webp("VP8X", chunk.array());
+    }
+
+    private static byte[] webp(String chunkType, byte[] chunk) {
+        ByteBuffer riff = ByteBuffer.allocate(20).order(ByteOrder.LITTLE_ENDIAN);
+        riff.put(ascii("RIFF")).putInt(12 + chunk.length).put(ascii("WEBP"));
+        riff.put(ascii(chunkType)).putInt(chunk.length);
+        return concat(riff.array(), chunk);
+    }
+
+    /**
+     * @return the ftyp and meta boxes of a HEIF image, with an ispe
+     *         property per size given, an irot of the given anticlockwise
+     *         quarter turns and, unless bitDepth is 0, a pixi property
+     */
+    public static byte[] heif(String brand, int quarterTurns, int bitDepth, int[]... sizes) {
+        byte[][] properties = new byte[sizes.length + 2][];
+        for (int i = 0; i < sizes.length; i++) {
+            properties[i] = fullBox("ispe", 0, u32(sizes[i][0]), u32(sizes[i][1]));
+        }
+        properties[sizes.length] = box("irot", new byte[] { (byte) quarterTurns });
+        properties[sizes.length + 1] = bitDepth == 0 ? new byte[0]
+                : fullBox("pixi", 0, new byte[] { 3, (byte) bitDepth, (byte) bitDepth, (byte) bitDepth });
+        return concat(
+                box("ftyp", ascii(brand), u32(0), ascii("mif1"), ascii(brand)),
+                fullBox("meta",
+                        0,
+                        fullBox("hdlr", 0, u32(0), ascii("pict"), new byte[12], new byte[1]),
+                        box("iprp", box("ipco", properties))));
+    }
+
+    public static void write(File file, byte[] content) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+    }
+
+    public static byte[] random(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static BufferedImage image(int width, int height, int type) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, 0xff000000 | (x * 255 / width) << 16 | (y * 255 / height) << 8);
+            }
+        }
+        return image;
+    }
+
+    private static byte[] encode(BufferedImage image, String format) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (!ImageIO.write(image, format, out)) {
+            throw new IOException("No ImageIO writer for " + format);
+        }
+        return out.toByteArray();
+    }
+
+    static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        byte[] result = new byte[length];
+        int position = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, result, position, part.length);
+            position += part.length;
+        }
+        return result;
+    }
+
+    static byte[] u32(long value) {
+        return ByteBuffer.allocate(4).putInt((int) value).array();
+    }
+
+    static byte[] u64(long value) {
+        return ByteBuffer.allocate(8).putLong(value).array();
+    }
+
+    static byte[] u16(int value) {
+        return ByteBuffer.allocate(2).putShort((short) value).array();
+    }
+
+    static byte[] ascii(String s) {
+        byte[] bytes = new byte[s.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) s.charAt(i);
+        }
+        return bytes;
+    }
+}
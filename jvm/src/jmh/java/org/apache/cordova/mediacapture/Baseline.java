@@ -0,0 +1,87 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.mediacapture;
+
+import android.webkit.MimeTypeMap;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+
+/**
+ * The plugin code the optimized paths replaced, copied as it was before
+ * them, so each benchmark can time the old and the new code in the same
+ * run on the same machine.
+ */
+final class Baseline {
+
+    private Baseline() {
+    }
+
+    /**
+     * The stream copy onActivityResult ran for every captured image.
+     */
+    static long copy(InputStream in, OutputStream out) throws IOException {
+        long total = 0;
+        byte[] buffer = new byte[4096];
+        int len;
+        while ((len = in.read(buffer)) != -1) {
+            out.write(buffer, 0, len);
+            total += len;
+        }
+        out.flush();
+        return total;
+    }
+
+    /**
+     * FileHelper.getMimeTypeForExtension(), which went to MimeTypeMap for
+     * every path.
+     */
+    static String getMimeTypeForExtension(String path) {
+        String extension = path;
+        int lastDot = extension.lastIndexOf('.');
+        if (lastDot != -1) {
+            extension = extension.substring(lastDot + 1);
+        }
+        extension = extension.toLowerCase(Locale.getDefault());
+        if (extension.equals("3ga")) {
+            return "audio/3gpp";
+        }
+        return MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension);
+    }
+
+    /**
+     * The inSampleSize arithmetic from getImageThumbnail().
+     */
+    static int calculateSampleSize(int srcWidth, int srcHeight, int reqWidth, int reqHeight) {
+        int beWidth = srcWidth / reqWidth;
+        int beHeight = srcHeight / reqHeight;
+        int be = 1;
+        if (beWidth < beHeight) {
+            be = beWidth;
+        } else {
+            be = beHeight;
+        }
+        if (be <= 0) {
+            be = 1;
+        }
+        return be;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.mediacapture;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recording a stage duration, which every capture and probe does, alone
+ * and from several threads at once, and reading the percentiles back.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(3)
+public class CaptureMetricsBenchmark {
+
+    private final CaptureMetrics metrics = new CaptureMetrics();
+
+    @Setup
+    public void setUp() {
+        // Spread over 1us to 10ms, so percentile() walks part of the buckets
+        long now = System.nanoTime();
+        for (int i = 1; i <= 10000; i++) {
+            metrics.record(CaptureMetrics.Stage.FORMAT_DATA, now - i * 1000L);
+        }
+    }
+
+    @Benchmark
+    public void record() {
+        metrics.record(CaptureMetrics.Stage.FORMAT_DATA, System.nanoTime() - 1500000, 4096);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void recordContended() {
+        metrics.record(CaptureMetrics.Stage.FORMAT_DATA, System.nanoTime() - 1500000, 4096);
+    }
+
+    @Benchmark
+    public long percentile() {
+        return metrics.getPercentileMicros(CaptureMetrics.Stage.FORMAT_DATA, 0.99);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.mediacapture;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The header parsers getFormatData() and createMediaFile() use instead of
+ * MediaPlayer and BitmapFactory, each opening and reading a file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(3)
+public class HeaderProbeBenchmark {
+
+    private File mp4;
+    private File jpeg;
+    private File png;
+
+    @Setup
+    public void setUp() throws IOException {
+        mp4 = File.createTempFile("probe", ".mp4");
+        jpeg = File.createTempFile("probe", ".jpg");
+        png = File.createTempFile("probe", ".png");
+        // moov after a 1MB mdat, the way camera apps write it
+        Fixtures.write(mp4, Fixtures.mp4("mp42", 1920, 1080, 10500, 1024 * 1024));
+        Fixtures.write(jpeg, Fixtures.jpeg(640, 480, 6));
+        Fixtures.write(png, Fixtures.png(640, 480));
+    }
+
+    @TearDown
+    public void tearDown() {
+        mp4.delete();
+        jpeg.delete();
+        png.delete();
+    }
+
+    @Benchmark
+    public IsoMediaParser.Info isoMedia() throws IOException {
+        return IsoMediaParser.parse(mp4);
+    }
+
+    @Benchmark
+    public ImageHeaderProbe.Info jpeg() throws IOException {
+        return ImageHeaderProbe.probe(jpeg);
+    }
+
+    @Benchmark
+    public ImageHeaderProbe.Info png() throws IOException {
+        return ImageHeaderProbe.probe(png);
+    }
+
+    @Benchmark
+    public String sniff() throws IOException {
+        return MimeTypeResolver.sniff(mp4);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.mediacapture;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups and updates of the on-disk index that caches probe results,
+ * holding a thousand entries.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(3)
+public class MediaIndexBenchmark {
+
+    private static final int ENTRIES = 1000;
+
+    private File directory;
+    private MediaIndex index;
+    private byte[] value;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("index").toFile();
+        index = new MediaIndex(directory);
+        value = "{\"height\":1080,\"width\":1920,\"bitrate\":17000000,\"duration\":10,\"codecs\":\"avc1.640028,mp4a.40.2\"}"
+                .getBytes("UTF-8");
+        for (int i = 0; i < ENTRIES; i++) {
+            index.put(key(i), i, i, value);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        index.close();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    public byte[] get() throws IOException {
+        int i = next++ % ENTRIES;
+        return index.get(key(i), i, i);
+    }
+
+    @Benchmark
+    public void put() throws IOException {
+        int i = next++ % ENTRIES;
+        index.put(key(i), i, i, value);
+        if (index.needsCompaction()) {
+            index.compact();
+        }
+    }
+
+    private static String key(int i) {
+        return "format:video/mp4:/storage/emulated/0/DCIM/Camera/VID_" + i + ".mp4";
+    }
+}
@@ -0,0 +1,65 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.mediacapture;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FileHelper.getMimeTypeForExtension(), run for every file handed back to
+ * JS, the table lookup it now tries first, and the lowercasing MimeTypeMap
+ * lookup it made before.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(3)
+public class MimeTypeBenchmark {
+
+    @Param({ "/storage/emulated/0/DCIM/Camera/IMG_20240101_120000.jpg", "file:///data/user/0/app/cache/VID_1.MP4",
+            "recording.3gpp", "notes.txt" })
+    public String path;
+
+    @Benchmark
+    public String getMimeTypeForExtension() {
+        return FileHelper.getMimeTypeForExtension(path);
+    }
+
+    @Benchmark
+    public String forExtension() {
+        return MimeTypeResolver.forExtension(path);
+    }
+
+    @Benchmark
+    public String baseline() {
+        return Baseline.getMimeTypeForExtension(path);
+    }
+}
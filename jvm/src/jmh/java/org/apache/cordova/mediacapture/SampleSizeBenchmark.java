@@ -0,0 +1,67 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.mediacapture;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The inSampleSize arithmetic Downscaler runs before every thumbnail and
+ * variant decode, and the division getImageThumbnail() did before it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(3)
+public class SampleSizeBenchmark {
+
+    // A 12MP sensor image down to a grid thumbnail
+    public int srcWidth = 4032;
+    public int srcHeight = 3024;
+    public int reqWidth = 256;
+    public int reqHeight = 256;
+    public long budgetBytes = 8 * 1024 * 1024;
+
+    @Benchmark
+    public int sampleSize() {
+        return Downscaler.sampleSize(srcWidth, srcHeight, reqWidth, reqHeight);
+    }
+
+    @Benchmark
+    public int sampleSizeForBudget() {
+        int sample = Downscaler.sampleSize(srcWidth, srcHeight, reqWidth, reqHeight);
+        return Downscaler.sampleSizeForBudget(srcWidth, srcHeight, sample, budgetBytes);
+    }
+
+    @Benchmark
+    public int calculateSampleSize() {
+        return Baseline.calculateSampleSize(srcWidth, srcHeight, reqWidth, reqHeight);
+    }
+}
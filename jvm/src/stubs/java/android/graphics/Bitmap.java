@@ -0,0 +1,53 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package android.graphics;
+
+/**
+ * Stand-in for the Android class, enough to compile and load the plugin
+ * classes on a plain JVM. Like the android.jar stubs, every method throws.
+ */
+public class Bitmap {
+    public enum Config { ALPHA_8, RGB_565, ARGB_4444, ARGB_8888 }
+
+    public enum CompressFormat { JPEG, PNG, WEBP }
+
+    public static Bitmap createBitmap(int width, int height, Config config) { throw new RuntimeException("Stub!"); }
+
+    public int getWidth() { throw new RuntimeException("Stub!"); }
+
+    public int getHeight() { throw new RuntimeException("Stub!"); }
+
+    public Config getConfig() { throw new RuntimeException("Stub!"); }
+
+    public int getByteCount() { throw new RuntimeException("Stub!"); }
+
+    public int getAllocationByteCount() { throw new RuntimeException("Stub!"); }
+
+    public boolean isMutable() { throw new RuntimeException("Stub!"); }
+
+    public boolean isRecycled() { throw new RuntimeException("Stub!"); }
+
+    public void reconfigure(int width, int height, Config config) { throw new RuntimeException("Stub!"); }
+
+    public void eraseColor(int color) { throw new RuntimeException("Stub!"); }
+
+    public boolean compress(CompressFormat format, int quality, java.io.OutputStream stream) { throw new RuntimeException("Stub!"); }
+
+    public void recycle() { throw new RuntimeException("Stub!"); }
+}
@@ -0,0 +1,36 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package android.graphics;
+
+/**
+ * Stand-in for the Android class. Every method throws.
+ */
+public class Matrix {
+    public Matrix() { throw new RuntimeException("Stub!"); }
+
+    public void setRotate(float degrees) { throw new RuntimeException("Stub!"); }
+
+    public void setScale(float sx, float sy) { throw new RuntimeException("Stub!"); }
+
+    public boolean preTranslate(float dx, float dy) { throw new RuntimeException("Stub!"); }
+
+    public boolean postTranslate(float dx, float dy) { throw new RuntimeException("Stub!"); }
+
+    public boolean postScale(float sx, float sy) { throw new RuntimeException("Stub!"); }
+}
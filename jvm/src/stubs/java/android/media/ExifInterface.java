@@ -0,0 +1,35 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package android.media;
+
+/**
+ * Stand-in for the Android class. Every method throws.
+ */
+public class ExifInterface {
+    public static final String TAG_ORIENTATION = "Orientation";
+    public static final int ORIENTATION_NORMAL = 1;
+
+    public ExifInterface(String filename) throws java.io.IOException { throw new RuntimeException("Stub!"); }
+
+    public String getAttribute(String tag) { throw new RuntimeException("Stub!"); }
+
+    public void setAttribute(String tag, String value) { throw new RuntimeException("Stub!"); }
+
+    public void saveAttributes() throws java.io.IOException { throw new RuntimeException("Stub!"); }
+}
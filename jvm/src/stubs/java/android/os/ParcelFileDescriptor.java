@@ -0,0 +1,42 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package android.os;
+
+/**
+ * Stand-in for the Android class. Every method throws.
+ */
+public class ParcelFileDescriptor implements java.io.Closeable {
+    public static class AutoCloseInputStream extends java.io.FileInputStream {
+        public AutoCloseInputStream(ParcelFileDescriptor pfd) {
+            super((java.io.FileDescriptor) null);
+            throw new RuntimeException("Stub!");
+        }
+    }
+
+    public static class AutoCloseOutputStream extends java.io.FileOutputStream {
+        public AutoCloseOutputStream(ParcelFileDescriptor pfd) {
+            super((java.io.FileDescriptor) null);
+            throw new RuntimeException("Stub!");
+        }
+    }
+
+    public long getStatSize() { throw new RuntimeException("Stub!"); }
+
+    public void close() throws java.io.IOException { throw new RuntimeException("Stub!"); }
+}
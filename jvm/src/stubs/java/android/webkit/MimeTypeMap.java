@@ -0,0 +1,55 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package android.webkit;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stand-in for the Android class. Unlike the other stand-ins it answers,
+ * from a small HashMap, because that is what the platform lookup amounts
+ * to and FileHelper falls back to it for every extension it doesn't know.
+ */
+public class MimeTypeMap {
+    private static final MimeTypeMap SINGLETON = new MimeTypeMap();
+
+    private final Map<String, String> types = new HashMap<String, String>();
+
+    private MimeTypeMap() {
+        types.put("jpg", "image/jpeg");
+        types.put("jpeg", "image/jpeg");
+        types.put("png", "image/png");
+        types.put("gif", "image/gif");
+        types.put("webp", "image/webp");
+        types.put("mp4", "video/mp4");
+        types.put("3gp", "video/3gpp");
+        types.put("3gpp", "video/3gpp");
+        types.put("m4a", "audio/mp4");
+        types.put("amr", "audio/amr");
+        types.put("txt", "text/plain");
+    }
+
+    public static MimeTypeMap getSingleton() {
+        return SINGLETON;
+    }
+
+    public String getMimeTypeFromExtension(String extension) {
+        return types.get(extension);
+    }
+}
@@ -0,0 +1,43 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova;
+
+/**
+ * Stand-in for Cordova's logger that drops everything, so logging doesn't
+ * show up in the measurements.
+ */
+public class LOG {
+    public static void d(String tag, String s) {
+    }
+
+    public static void d(String tag, String s, Object... args) {
+    }
+
+    public static void w(String tag, String s) {
+    }
+
+    public static void w(String tag, String s, Throwable e) {
+    }
+
+    public static void e(String tag, String s) {
+    }
+
+    public static void e(String tag, String s, Throwable e) {
+    }
+}
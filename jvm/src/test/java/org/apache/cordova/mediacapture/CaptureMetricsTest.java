@@ -0,0 +1,109 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.mediacapture;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CaptureMetricsTest {
+
+    @Test
+    public void exactBelowEight() {
+        for (int micros = 0; micros < 8; micros++) {
+            assertEquals(micros, CaptureMetrics.bucketFor(micros));
+            assertEquals(micros, CaptureMetrics.bucketFloor(micros));
+        }
+    }
+
+    @Test
+    public void bucketsArePowersOfTwoInEighths() {
+        assertEquals(8, CaptureMetrics.bucketFor(8));
+        assertEquals(15, CaptureMetrics.bucketFor(15));
+        assertEquals(16, CaptureMetrics.bucketFor(16));
+        assertEquals(16, CaptureMetrics.bucketFor(17));
+        assertEquals(17, CaptureMetrics.bucketFor(18));
+        assertEquals(16, CaptureMetrics.bucketFloor(16));
+        assertEquals(18, CaptureMetrics.bucketFloor(17));
+        assertEquals(1024, CaptureMetrics.bucketFloor(CaptureMetrics.bucketFor(1024)));
+    }
+
+    @Test
+    public void everyValueFallsInItsBucket() {
+        int last = 0;
+        for (long micros = 0; micros < 1L << 31; micros = micros * 9 / 8 + 1) {
+            int bucket = CaptureMetrics.bucketFor(micros);
+            assertTrue(bucket >= last);
+            last = bucket;
+            long floor = CaptureMetrics.bucketFloor(bucket);
+            long next = CaptureMetrics.bucketFloor(bucket + 1);
+            assertTrue(micros + " below bucket " + bucket, floor <= micros);
+            assertTrue(micros + " above bucket " + bucket, micros < next);
+            // Within 1/8 of the true value
+            assertTrue(next - floor <= Math.max(1, floor / 8));
+        }
+    }
+
+    @Test
+    public void hugeValuesShareTheLastBucket() {
+        int last = CaptureMetrics.bucketFor(Long.MAX_VALUE);
+        assertEquals(last, CaptureMetrics.bucketFor(1L << 40));
+        assertEquals(last, CaptureMetrics.bucketFor((1L << 32) - 1));
+        assertTrue(CaptureMetrics.bucketFor((1L << 31) - 1) < last);
+    }
+
+    @Test
+    public void recordAndReset() {
+        CaptureMetrics metrics = new CaptureMetrics();
+        long now = System.nanoTime();
+        metrics.record(CaptureMetrics.Stage.COPY, now - 5000000, 4096);
+        metrics.record(CaptureMetrics.Stage.COPY, now - 1000000, 1024);
+        assertEquals(2, metrics.getCount(CaptureMetrics.Stage.COPY));
+        assertEquals(5120, metrics.getBytes(CaptureMetrics.Stage.COPY));
+        assertTrue(metrics.getMaxMicros(CaptureMetrics.Stage.COPY) >= 5000);
+        assertTrue(metrics.getTotalMicros(CaptureMetrics.Stage.COPY) >= 6000);
+        assertEquals(0, metrics.getCount(CaptureMetrics.Stage.DIGEST));
+        assertEquals(0, metrics.getPercentileMicros(CaptureMetrics.Stage.DIGEST, 0.5));
+
+        metrics.reset();
+        assertEquals(0, metrics.getCount(CaptureMetrics.Stage.COPY));
+        assertEquals(0, metrics.getBytes(CaptureMetrics.Stage.COPY));
+        assertEquals(0, metrics.getMaxMicros(CaptureMetrics.Stage.COPY));
+    }
+
+    @Test
+    public void percentilesAreWithinAnEighth() {
+        CaptureMetrics metrics = new CaptureMetrics();
+        // Durations of 1ms to 100ms, each started that long before it is recorded
+        for (int ms = 1; ms <= 100; ms++) {
+            metrics.record(CaptureMetrics.Stage.THUMBNAIL, System.nanoTime() - ms * 1000000L);
+        }
+        assertWithinAnEighth(50000, metrics.getPercentileMicros(CaptureMetrics.Stage.THUMBNAIL, 0.50));
+        assertWithinAnEighth(90000, metrics.getPercentileMicros(CaptureMetrics.Stage.THUMBNAIL, 0.90));
+        assertWithinAnEighth(99000, metrics.getPercentileMicros(CaptureMetrics.Stage.THUMBNAIL, 0.99));
+        assertTrue(metrics.getPercentileMicros(CaptureMetrics.Stage.THUMBNAIL, 1.0)
+                <= metrics.getMaxMicros(CaptureMetrics.Stage.THUMBNAIL));
+    }
+
+    // Recording takes a little longer than the durations it was given
+    private static void assertWithinAnEighth(long expected, long actual) {
+        assertTrue(expected + " vs " + actual, Math.abs(actual - expected) <= expected / 8 + 1000);
+    }
+}
@@ -0,0 +1,109 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.mediacapture;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class ImageHeaderProbeTest {
+
+    private static void assertProbe(String name, String mimeType, int width, int height, int bitDepth,
+            int orientation) throws IOException {
+        ImageHeaderProbe.Info info = ImageHeaderProbe.probe(Corpus.file(name));
+        assertNotNull(name, info);
+        assertEquals(name, mimeType, info.mimeType);
+        assertEquals(name, width, info.width);
+        assertEquals(name, height, info.height);
+        assertEquals(name, bitDepth, info.bitDepth);
+        assertEquals(name, orientation, info.orientation);
+    }
+
+    @Test
+    public void jpeg() throws IOException {
+        assertProbe("upright.jpg", "image/jpeg", 320, 240, 8, 1);
+    }
+
+    @Test
+    public void jpegOrientation() throws IOException {
+        assertProbe("rotated-be.jpg", "image/jpeg", 320, 240, 8, 6);
+        assertProbe("rotated-le.jpg", "image/jpeg", 320, 240, 8, 8);
+    }
+
+    @Test
+    public void png() throws IOException {
+        assertProbe("image.png", "image/png", 64, 48, 8, 1);
+    }
+
+    @Test
+    public void gif() throws IOException {
+        assertProbe("image.gif", "image/gif", 64, 48, 8, 1);
+    }
+
+    @Test
+    public void webp() throws IOException {
+        assertProbe("lossy.webp", "image/webp", 800, 600, 8, 1);
+        assertProbe("lossless.webp", "image/webp", 640, 480, 8, 1);
+        assertProbe("extended.webp", "image/webp", 4000, 3000, 8, 1);
+    }
+
+    @Test
+    public void heifTakesTheCanvasAndRotation() throws IOException {
+        assertProbe("grid.heic", "image/heif", 4032, 3024, 10, 6);
+    }
+
+    @Test
+    public void avif() throws IOException {
+        assertProbe("image.avif", "image/avif", 1920, 1080, 8, 1);
+    }
+
+    @Test
+    public void unreadable() throws IOException {
+        assertNull(ImageHeaderProbe.probe(Corpus.file("truncated.jpg")));
+        assertNull(ImageHeaderProbe.probe(Corpus.file("not-media.txt")));
+        assertNull(ImageHeaderProbe.probe(Corpus.file("video-avc-aac.mp4")));
+    }
+
+    @Test
+    public void exifOrientation() {
+        for (int orientation = 1; orientation <= 8; orientation++) {
+            assertEquals(orientation, ImageHeaderProbe.readExifOrientation(app1(orientation, ByteOrder.BIG_ENDIAN)));
+            assertEquals(orientation, ImageHeaderProbe.readExifOrientation(app1(orientation, ByteOrder.LITTLE_ENDIAN)));
+        }
+        // Out of range, and an IFD0 beyond what was read
+        assertEquals(1, ImageHeaderProbe.readExifOrientation(app1(9, ByteOrder.BIG_ENDIAN)));
+        ByteBuffer cut = app1(6, ByteOrder.BIG_ENDIAN);
+        cut.limit(16);
+        assertEquals(1, ImageHeaderProbe.readExifOrientation(cut.slice()));
+        assertEquals(1, ImageHeaderProbe.readExifOrientation(ByteBuffer.wrap(new byte[32])));
+    }
+
+    // The segment body, after the marker and length
+    private static ByteBuffer app1(int orientation, ByteOrder order) {
+        byte[] segment = Fixtures.app1Orientation(orientation, order);
+        return ByteBuffer.wrap(Arrays.copyOfRange(segment, 4, segment.length));
+    }
+}
@@ -0,0 +1,138 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.mediacapture;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class IsoMediaParserTest {
+
+    private static IsoMediaParser.Info parse(String name) throws IOException {
+        IsoMediaParser.Info info = IsoMediaParser.parse(Corpus.file(name));
+        assertNotNull(name, info);
+        return info;
+    }
+
+    @Test
+    public void videoWithAudio() throws IOException {
+        File file = Corpus.file("video-avc-aac.mp4");
+        IsoMediaParser.Info info = parse("video-avc-aac.mp4");
+        assertEquals("mp42", info.majorBrand);
+        assertEquals(10500, info.durationMs);
+        assertEquals(1920, info.width);
+        assertEquals(1080, info.height);
+        assertEquals("avc1.640028,mp4a.40.2", info.getCodecs());
+        assertTrue(info.hasVideo);
+        assertTrue(info.hasAudio);
+        assertEquals(file.length() * 8 * 1000 / 10500, info.bitrate);
+    }
+
+    @Test
+    public void moovBeforeMdat() throws IOException {
+        IsoMediaParser.Info info = parse("faststart.mp4");
+        assertEquals("isom", info.majorBrand);
+        assertEquals(10500, info.durationMs);
+        assertEquals(1920, info.width);
+        assertEquals(1080, info.height);
+        assertEquals("avc1.640028,mp4a.40.2", info.getCodecs());
+    }
+
+    @Test
+    public void audioOnly() throws IOException {
+        IsoMediaParser.Info info = parse("audio-aac.m4a");
+        assertEquals("M4A ", info.majorBrand);
+        assertEquals(3000, info.durationMs);
+        assertEquals(0, info.width);
+        assertEquals(0, info.height);
+        assertEquals("mp4a.40.5", info.getCodecs());
+        assertFalse(info.hasVideo);
+        assertTrue(info.hasAudio);
+    }
+
+    @Test
+    public void sampleEntriesWithoutCodecBoxes() throws IOException {
+        IsoMediaParser.Info info = parse("video-h263.3gp");
+        assertEquals("3gp4", info.majorBrand);
+        assertEquals(4000, info.durationMs);
+        assertEquals(176, info.width);
+        assertEquals(144, info.height);
+        assertEquals("s263,samr", info.getCodecs());
+    }
+
+    @Test
+    public void version1MovieHeader() throws IOException {
+        IsoMediaParser.Info info = parse("mvhd-v1.mp4");
+        assertEquals(65000, info.durationMs);
+        assertEquals(1280, info.width);
+        assertEquals(720, info.height);
+        assertEquals("avc1.42C01E", info.getCodecs());
+    }
+
+    @Test
+    public void longestTrackWithoutMovieDuration() throws IOException {
+        IsoMediaParser.Info info = parse("track-duration.mp4");
+        assertEquals(6000, info.durationMs);
+        assertEquals(640, info.width);
+        assertEquals(480, info.height);
+    }
+
+    @Test
+    public void largeSizeBox() throws IOException {
+        IsoMediaParser.Info info = parse("large-mdat.mp4");
+        assertEquals(2000, info.durationMs);
+        assertEquals(320, info.width);
+        assertEquals(240, info.height);
+    }
+
+    @Test
+    public void truncatedMoovKeepsWhatWasRead() throws IOException {
+        IsoMediaParser.Info info = parse("truncated-moov.mp4");
+        assertEquals(7000, info.durationMs);
+        assertEquals("", info.getCodecs());
+    }
+
+    @Test
+    public void shortInnerBoxKeepsWhatWasRead() throws IOException {
+        IsoMediaParser.Info info = parse("short-tkhd.mp4");
+        assertEquals(8000, info.durationMs);
+        assertEquals(0, info.width);
+        assertEquals(0, info.height);
+    }
+
+    @Test
+    public void notIsoMedia() throws IOException {
+        assertNull(IsoMediaParser.parse(Corpus.file("not-media.txt")));
+        assertNull(IsoMediaParser.parse(Corpus.file("upright.jpg")));
+    }
+
+    @Test
+    public void fourcc() {
+        assertEquals(0x6d6f6f76, IsoMediaParser.fourcc("moov"));
+        assertEquals("moov", IsoMediaParser.fourccToString(0x6d6f6f76));
+        assertEquals("a?b?", IsoMediaParser.fourccToString(0x61006210));
+    }
+}
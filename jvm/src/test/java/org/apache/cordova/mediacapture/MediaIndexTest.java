@@ -0,0 +1,171 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.mediacapture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MediaIndexTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private MediaIndex index;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = folder.newFolder("index");
+        index = new MediaIndex(directory);
+    }
+
+    @After
+    public void tearDown() {
+        index.close();
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(UTF_8);
+    }
+
+    @Test
+    public void getReturnsWhatWasPut() throws IOException {
+        index.put("a", 10, 100, bytes("first"));
+        index.put("b", 20, 200, bytes("second"));
+        assertArrayEquals(bytes("first"), index.get("a", 10, 100));
+        assertArrayEquals(bytes("second"), index.get("b", 20, 200));
+        assertNull(index.get("c", 10, 100));
+        assertEquals(2, index.getCount());
+    }
+
+    @Test
+    public void putReplaces() throws IOException {
+        index.put("a", 10, 100, bytes("first"));
+        index.put("a", 10, 100, bytes("again"));
+        assertArrayEquals(bytes("again"), index.get("a", 10, 100));
+        assertEquals(1, index.getCount());
+    }
+
+    @Test
+    public void changedFileMissesAndDropsTheRecord() throws IOException {
+        index.put("a", 10, 100, bytes("first"));
+        assertTrue(index.contains("a", 10, 100));
+        assertFalse(index.contains("a", 11, 100));
+        assertNull(index.get("a", 10, 101));
+        assertNull(index.get("a", 10, 100));
+        assertEquals(0, index.getCount());
+    }
+
+    @Test
+    public void remove() throws IOException {
+        index.put("a", 10, 100, bytes("first"));
+        index.remove("a");
+        index.remove("never put");
+        assertNull(index.get("a", 10, 100));
+        assertEquals(0, index.getCount());
+    }
+
+    @Test
+    public void survivesReopening() throws IOException {
+        index.put("a", 10, 100, bytes("first"));
+        index.close();
+        index = new MediaIndex(directory);
+        assertArrayEquals(bytes("first"), index.get("a", 10, 100));
+    }
+
+    @Test
+    public void corruptTableStartsOver() throws IOException {
+        index.put("a", 10, 100, bytes("first"));
+        index.close();
+        RandomAccessFile tab = new RandomAccessFile(new File(directory, "index.tab"), "rw");
+        try {
+            tab.writeInt(0);
+        } finally {
+            tab.close();
+        }
+        index = new MediaIndex(directory);
+        assertNull(index.get("a", 10, 100));
+        index.put("a", 10, 100, bytes("again"));
+        assertArrayEquals(bytes("again"), index.get("a", 10, 100));
+    }
+
+    @Test
+    public void growsPastItsInitialCapacity() throws IOException {
+        for (int i = 0; i < 5000; i++) {
+            index.put("key" + i, i, i, bytes("value" + i));
+        }
+        assertEquals(5000, index.getCount());
+        for (int i = 0; i < 5000; i++) {
+            assertArrayEquals(bytes("value" + i), index.get("key" + i, i, i));
+        }
+    }
+
+    @Test
+    public void compactKeepsLiveRecords() throws IOException {
+        byte[] large = new byte[1024];
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 50; i++) {
+                index.put("key" + i, i, round, large);
+            }
+        }
+        assertTrue(index.needsCompaction());
+        long live = index.getLiveBytes();
+        index.compact();
+        assertFalse(index.needsCompaction());
+        assertEquals(live, index.getLiveBytes());
+        assertEquals(50, index.getCount());
+        for (int i = 0; i < 50; i++) {
+            assertTrue(index.contains("key" + i, i, 9));
+        }
+        assertTrue(new File(directory, "index.log").length() <= live);
+    }
+
+    @Test
+    public void compactDropsTheOldestOverTheLimit() throws IOException {
+        byte[] value = new byte[100];
+        for (int i = 0; i < 10; i++) {
+            index.put("key" + i, i, i, value);
+        }
+        long perRecord = index.getLiveBytes() / 10;
+        assertEquals(6, index.compact(perRecord * 4));
+        assertEquals(4, index.getCount());
+        assertFalse(index.contains("key0", 0, 0));
+        assertTrue(index.contains("key9", 9, 9));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOversizedValues() throws IOException {
+        index.put("a", 1, 1, new byte[1024 * 1024 + 1]);
+    }
+}
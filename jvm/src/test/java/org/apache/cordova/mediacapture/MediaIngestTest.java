@@ -0,0 +1,99 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.mediacapture;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import static org.apache.cordova.mediacapture.Fixtures.random;
+import static org.apache.cordova.mediacapture.Fixtures.write;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+public class MediaIngestTest {
+    // Spans several transferTo() calls and fallback buffers
+    private static final int SIZE = 1024 * 1024 + 17;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void transferFile() throws IOException {
+        byte[] content = random(SIZE);
+        File source = folder.newFile("source");
+        File destination = folder.newFile("destination");
+        write(source, content);
+
+        FileInputStream in = new FileInputStream(source);
+        RandomAccessFile out = new RandomAccessFile(destination, "rw");
+        try {
+            assertEquals(SIZE, MediaIngest.transfer(in.getChannel(), out.getChannel()));
+        } finally {
+            in.close();
+            out.close();
+        }
+        assertArrayEquals(content, Files.readAllBytes(destination.toPath()));
+    }
+
+    // A provider may hand us a pipe, which reports no size and can't seek
+    @Test
+    public void transferPipe() throws Exception {
+        final byte[] content = random(SIZE);
+        final File fifo = new File(folder.getRoot(), "fifo");
+        File destination = folder.newFile("destination");
+        int status;
+        try {
+            status = new ProcessBuilder("mkfifo", fifo.getPath()).start().waitFor();
+        } catch (IOException e) {
+            status = -1;
+        }
+        assumeTrue("mkfifo is unavailable", status == 0);
+
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    write(fifo, content);
+                } catch (IOException e) {
+                    // The reader sees a short copy and fails
+                }
+            }
+        };
+        writer.start();
+        FileInputStream in = new FileInputStream(fifo);
+        FileOutputStream out = new FileOutputStream(destination);
+        try {
+            assertEquals(SIZE, MediaIngest.transfer(in.getChannel(), out.getChannel()));
+        } finally {
+            in.close();
+            out.close();
+            writer.join();
+        }
+        assertArrayEquals(content, Files.readAllBytes(destination.toPath()));
+    }
+}
@@ -0,0 +1,291 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.mediacapture;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Build;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps bitmaps that are no longer needed so later decodes and thumbnails
+ * can draw into them instead of allocating, which keeps multi-image
+ * sessions from churning the heap.
+ *
+ * Bitmaps are bucketed by allocation size. From KitKat on a bitmap can be
+ * reconfigured to any size that fits its allocation, so a request is
+ * served from the smallest bucket that is big enough but no more than
+ * four times the size needed. Before KitKat only an exact match of
+ * dimensions and config can be reused. The oldest bitmaps are recycled
+ * once the pool holds more than its byte budget.
+ */
+public class BitmapPool {
+
+    // Don't tie up a much bigger allocation for a small request
+    private static final int MAX_SIZE_MULTIPLE = 4;
+
+    private final TreeMap<Integer, ArrayDeque<Bitmap>> buckets = new TreeMap<Integer, ArrayDeque<Bitmap>>();
+    // Least recently added first
+    private final ArrayDeque<Bitmap> order = new ArrayDeque<Bitmap>();
+    private final long maxBytes;
+    private long bytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong puts = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong decodeFallbacks = new AtomicLong();
+
+    public BitmapPool() {
+        this(Math.min(Runtime.getRuntime().maxMemory() / 16, 16 * 1024 * 1024));
+    }
+
+    public BitmapPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Takes a bitmap of the given size out of the pool, or allocates one.
+     * The contents of a pooled bitmap are undefined.
+     */
+    public Bitmap get(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = take(width, height, config);
+        if (bitmap != null) {
+            return bitmap;
+        }
+        return Bitmap.createBitmap(width, height, config);
+    }
+
+    /**
+     * Takes a bitmap of the given size out of the pool.
+     *
+     * @return the bitmap, or null if none fits
+     */
+    public synchronized Bitmap take(int width, int height, Bitmap.Config config) {
+        int size = width * height * bytesPerPixel(config);
+        Bitmap found = null;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            Map.Entry<Integer, ArrayDeque<Bitmap>> entry = buckets.ceilingEntry(size);
+            if (entry != null && entry.getKey() <= (long) size * MAX_SIZE_MULTIPLE) {
+                found = entry.getValue().pollFirst();
+                if (entry.getValue().isEmpty()) {
+                    buckets.remove(entry.getKey());
+                }
+            }
+            if (found != null) {
+                found.reconfigure(width, height, config);
+            }
+        } else {
+            ArrayDeque<Bitmap> bucket = buckets.get(size);
+            if (bucket != null) {
+                Iterator<Bitmap> it = bucket.iterator();
+                while (it.hasNext()) {
+                    Bitmap candidate = it.next();
+                    if (candidate.getWidth() == width && candidate.getHeight() == height
+                            && candidate.getConfig() == config) {
+                        it.remove();
+                        found = candidate;
+                        break;
+                    }
+                }
+                if (bucket.isEmpty()) {
+                    buckets.remove(size);
+                }
+            }
+        }
+        if (found == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        order.remove(found);
+        bytes -= allocationSize(found);
+        hits.incrementAndGet();
+        return found;
+    }
+
+    /**
+     * Hands a bitmap back for reuse. The caller must not touch it again.
+     * Bitmaps that can't be reused are recycled.
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        int size = allocationSize(bitmap);
+        if (!bitmap.isMutable() || bitmap.getConfig() == null || size > maxBytes / 2) {
+            bitmap.recycle();
+            return;
+        }
+        ArrayDeque<Bitmap> bucket = buckets.get(size);
+        if (bucket == null) {
+            bucket = new ArrayDeque<Bitmap>();
+            buckets.put(size, bucket);
+        }
+        bucket.addLast(bitmap);
+        order.addLast(bitmap);
+        bytes += size;
+        puts.incrementAndGet();
+        trimToSize(maxBytes);
+    }
+
+    private void trimToSize(long size) {
+        while (bytes > size && !order.isEmpty()) {
+            Bitmap oldest = order.pollFirst();
+            int oldestSize = allocationSize(oldest);
+            ArrayDeque<Bitmap> bucket = buckets.get(oldestSize);
+            if (bucket != null) {
+                bucket.remove(oldest);
+                if (bucket.isEmpty()) {
+                    buckets.remove(oldestSize);
+                }
+            }
+            bytes -= oldestSize;
+            evictions.incrementAndGet();
+            oldest.recycle();
+        }
+    }
+
+    /**
+     * Decodes a file, drawing into a pooled bitmap when one fits. The
+     * options must already hold the source bounds and sample size.
+     *
+     * @return the bitmap, or null if the file can't be decoded
+     */
+    public Bitmap decodeFile(String path, BitmapFactory.Options options) {
+        int sample = Math.max(1, options.inSampleSize);
+        options.inJustDecodeBounds = false;
+        options.inMutable = true;
+        options.inBitmap = null;
+        // Before KitKat only unsampled decodes of the exact size can reuse
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT || sample == 1) {
+            int width = (options.outWidth + sample - 1) / sample;
+            int height = (options.outHeight + sample - 1) / sample;
+            Bitmap.Config config = options.inPreferredConfig != null
+                    ? options.inPreferredConfig : Bitmap.Config.ARGB_8888;
+            options.inBitmap = take(width, height, config);
+        }
+        if (options.inBitmap == null) {
+            return BitmapFactory.decodeFile(path, options);
+        }
+        Bitmap reused = options.inBitmap;
+        try {
+            return BitmapFactory.decodeFile(path, options);
+        } catch (IllegalArgumentException e) {
+            // The decoder can't use this bitmap after all
+            decodeFallbacks.incrementAndGet();
+            options.inBitmap = null;
+            put(reused);
+            return BitmapFactory.decodeFile(path, options);
+        }
+    }
+
+    /**
+     * Scales source to fill width x height and crops the middle, like
+     * ThumbnailUtils.extractThumbnail, drawing into a pooled bitmap. The
+     * source is not modified.
+     */
+    public Bitmap extractThumbnail(Bitmap source, int width, int height) {
+        int srcWidth = source.getWidth();
+        int srcHeight = source.getHeight();
+        // Largest centered region with the target's aspect ratio
+        Rect src;
+        if ((long) srcWidth * height > (long) srcHeight * width) {
+            int cropWidth = (int) ((long) srcHeight * width / height);
+            int left = (srcWidth - cropWidth) / 2;
+            src = new Rect(left, 0, left + cropWidth, srcHeight);
+        } else {
+            int cropHeight = (int) ((long) srcWidth * height / width);
+            int top = (srcHeight - cropHeight) / 2;
+            src = new Rect(0, top, srcWidth, top + cropHeight);
+        }
+        return draw(source, src, width, height);
+    }
+
+    /**
+     * Scales all of source to width x height into a pooled bitmap. The
+     * source is not modified.
+     */
+    public Bitmap scale(Bitmap source, int width, int height) {
+        return draw(source, new Rect(0, 0, source.getWidth(), source.getHeight()), width, height);
+    }
+
+    private Bitmap draw(Bitmap source, Rect src, int width, int height) {
+        Bitmap.Config config = source.getConfig() != null ? source.getConfig() : Bitmap.Config.ARGB_8888;
+        Bitmap target = get(width, height, config);
+        target.eraseColor(0);
+        Canvas canvas = new Canvas(target);
+        canvas.drawBitmap(source, src, new Rect(0, 0, width, height), new Paint(Paint.FILTER_BITMAP_FLAG));
+        return target;
+    }
+
+    /**
+     * Releases memory in response to ComponentCallbacks2.onTrimMemory().
+     */
+    public synchronized void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            trimToSize(0);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            trimToSize(maxBytes / 2);
+        }
+    }
+
+    public synchronized JSONObject getStats() throws JSONException {
+        long hitCount = hits.get();
+        long requests = hitCount + misses.get();
+        JSONObject stats = new JSONObject();
+        stats.put("hits", hitCount);
+        stats.put("misses", misses.get());
+        stats.put("reuseRate", requests == 0 ? 0 : (double) hitCount / requests);
+        stats.put("puts", puts.get());
+        stats.put("evictions", evictions.get());
+        stats.put("decodeFallbacks", decodeFallbacks.get());
+        stats.put("bytes", bytes);
+        stats.put("maxBytes", maxBytes);
+        return stats;
+    }
+
+    private static int allocationSize(Bitmap bitmap) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                ? bitmap.getAllocationByteCount() : bitmap.getByteCount();
+    }
+
+    private static int bytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        }
+        if (config == Bitmap.Config.RGB_565) {
+            return 2;
+        }
+        return 4;
+    }
+}
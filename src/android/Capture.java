@@ -18,17 +18,21 @@
  */
 package org.apache.cordova.mediacapture;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import android.os.Build;
 
@@ -36,6 +40,7 @@ import org.apache.cordova.file.FileUtils;
 import org.apache.cordova.file.LocalFilesystemURL;
 import org.apache.cordova.CallbackContext;
 import org.apache.cordova.CordovaPlugin;
+import org.apache.cordova.CordovaResourceApi;
 import org.apache.cordova.LOG;
 import org.apache.cordova.PluginManager;
 import org.apache.cordova.PluginResult;
@@ -46,19 +51,23 @@ import org.json.JSONObject;
 //import com.simpleevent.xattender.R.string;
 
 import android.app.Activity;
+import android.content.ComponentCallbacks2;
+import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.Intent;
+import android.content.res.Configuration;
 import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.media.MediaPlayer;
-import android.media.MediaPlayer.OnPreparedListener;
 import android.media.ThumbnailUtils;
 import android.net.Uri;
+import android.os.Bundle;
 import android.os.Environment;
 import android.provider.MediaStore;
 import android.util.Log;
-import android.widget.ImageView;
 
 public class Capture extends CordovaPlugin {
 
@@ -77,15 +86,85 @@ public class Capture extends CordovaPlugin {
 	// private static final int CAPTURE_INVALID_ARGUMENT = 2;
 	private static final int CAPTURE_NO_MEDIA_FILES = 3;
 
-	private CallbackContext callbackContext; // The callback context from which
-												// we were invoked.
-	private long limit; // the number of pics/vids/clips to take
-	private int duration; // optional max duration of video recording in seconds
-	private JSONArray results; // The array of results to be returned to the
-								// user
-	private int numPics; // Number of pictures before capture activity
-	
-	private String cur_fileName="";
+	// Capture requests in flight, keyed by session id
+	private final Map<Integer, CaptureSession> sessions = new ConcurrentHashMap<Integer, CaptureSession>();
+
+	// Files the camera writes to and other per-capture temporaries, cleaned
+	// up by a janitor within a byte and age budget. Both limits can be set
+	// with config.xml preferences.
+	private static final long DEFAULT_SCRATCH_MAX_BYTES = 50 * 1024 * 1024;
+	private static final long DEFAULT_SCRATCH_MAX_AGE_HOURS = 24;
+	private ScratchSpace scratch;
+	private long scratchMaxBytes;
+	private long scratchMaxAgeMs;
+	// frameStrip sheets; the janitor keeps the oldest within a byte budget,
+	// and a sheet that was removed is rebuilt when asked for again
+	private static final long FRAME_STRIP_MAX_BYTES = 20 * 1024 * 1024;
+	private ScratchSpace frameStrips;
+	private final AtomicInteger janitorQueued = new AtomicInteger();
+	private final AtomicInteger compactionQueued = new AtomicInteger();
+
+	// Post-capture work: result delivery, then thumbnails, then enrichment
+	private static final int CAPTURE_THREADS = 2;
+	private static final int CAPTURE_QUEUE_CAPACITY = 32;
+	private final CaptureExecutor captureExecutor = new CaptureExecutor(CAPTURE_THREADS,
+			CAPTURE_QUEUE_CAPACITY);
+	private final CaptureMetrics metrics = new CaptureMetrics();
+	private final Map<Integer, ThumbnailRequest> pendingThumbnails = new ConcurrentHashMap<Integer, ThumbnailRequest>();
+	private final AtomicInteger nextThumbnailId = new AtomicInteger();
+
+	private static final int THUMBNAIL_SIZE = 300;
+	// cdvcapture://thumbnail/<id>, served by handleOpenForRead() from the
+	// thumbnail pack
+	private static final String THUMBNAIL_SCHEME = "cdvcapture";
+	private static final String THUMBNAIL_HOST = "thumbnail";
+	private static final String THUMBNAIL_URL_PREFIX = THUMBNAIL_SCHEME + "://" + THUMBNAIL_HOST + "/";
+	// Upright since EXIF orientation is applied, so older sideways entries miss
+	private static final String IMAGE_THUMBNAIL_SPEC = "image:" + THUMBNAIL_SIZE + "x" + THUMBNAIL_SIZE + ":upright";
+	private static final String VIDEO_THUMBNAIL_SPEC = "video:" + THUMBNAIL_SIZE + "x" + THUMBNAIL_SIZE;
+
+	// Bounded pool for getFormatDataBatch, so a long list can't flood the
+	// shared cordova thread pool
+	private static final int PROBE_THREADS = Math.max(1, Math.min(4,
+			Runtime.getRuntime().availableProcessors()));
+	private final ExecutorService probeExecutor = Executors.newFixedThreadPool(PROBE_THREADS);
+	private ThumbnailCache thumbnailCache;
+	// Reused by thumbnail and variant decodes, and fed by thumbnails once
+	// the cache has encoded them
+	private final BitmapPool bitmapPool = new BitmapPool();
+	// Temporary bitmaps a single image decode may use, on top of its output
+	private static final long DECODE_BUDGET_BYTES = Math.min(Runtime.getRuntime().maxMemory() / 8,
+			16 * 1024 * 1024);
+	// A full size upright image and the strips decoded into it, for
+	// normalizeOrientation; about 48MB for a 12MP photo
+	private static final long NORMALIZE_BUDGET_BYTES = Runtime.getRuntime().maxMemory() / 3;
+
+	// Format data and durations keyed by path, size and mtime
+	private MediaIndex mediaIndex;
+	private boolean mediaIndexFailed;
+
+	// MediaStore URIs of ingested images keyed by SHA-256, for dedupe
+	private MediaIndex hashIndex;
+	private boolean hashIndexFailed;
+	private final AtomicLong duplicateHits = new AtomicLong();
+
+	private final ComponentCallbacks2 trimCallbacks = new ComponentCallbacks2() {
+		@Override
+		public void onTrimMemory(int level) {
+			thumbnailCache.trimMemory(level);
+			bitmapPool.trimMemory(level);
+		}
+
+		@Override
+		public void onLowMemory() {
+			thumbnailCache.trimMemory(TRIM_MEMORY_COMPLETE);
+			bitmapPool.trimMemory(TRIM_MEMORY_COMPLETE);
+		}
+
+		@Override
+		public void onConfigurationChanged(Configuration newConfig) {
+		}
+	};
 
 	// private CordovaInterface cordova;
 
@@ -99,36 +178,147 @@ public class Capture extends CordovaPlugin {
 	// }
 
 	@Override
-	public boolean execute(String action, JSONArray args,
-			CallbackContext callbackContext) throws JSONException {
-		this.callbackContext = callbackContext;
-		this.limit = 1;
-		this.duration = 0;
-		this.results = new JSONArray();
-
-		JSONObject options = args.optJSONObject(0);
-		if (options != null) {
-			limit = options.optLong("limit", 1);
-			duration = options.optInt("duration", 0);
-		}
+	protected void pluginInitialize() {
+		Context context = cordova.getActivity().getApplicationContext();
+		thumbnailCache = new ThumbnailCache(new File(context.getCacheDir(), "capture-thumbnails"), bitmapPool);
+		context.registerComponentCallbacks(trimCallbacks);
+		scratch = new ScratchSpace(new File(context.getCacheDir(), "capture-scratch"));
+		scratchMaxBytes = getLongPreference("CaptureScratchMaxBytes", DEFAULT_SCRATCH_MAX_BYTES);
+		scratchMaxAgeMs = getLongPreference("CaptureScratchMaxAgeHours", DEFAULT_SCRATCH_MAX_AGE_HOURS)
+				* 60 * 60 * 1000;
+		frameStrips = new ScratchSpace(new File(context.getCacheDir(), "capture-framestrips"));
+
+		// Left over from earlier runs, including the old fixed Capture.jpg
+		new File(context.getCacheDir(), "Capture.jpg").delete();
+		cleanScratch();
+		compactThumbnails();
+
+		captureExecutor.execute(CaptureExecutor.PRIORITY_ENRICHMENT, new Runnable() {
+			@Override
+			public void run() {
+				compact(getMediaIndex());
+				compact(getHashIndexIfUsed());
+			}
+		});
+	}
 
+	@Override
+	public boolean execute(String action, JSONArray args,
+			final CallbackContext callbackContext) throws JSONException {
 		if (action.equals("getFormatData")) {
-			JSONObject obj = getFormatData(args.getString(0), args.getString(1));
-			callbackContext.success(obj);
+			final String filePath = args.getString(0);
+			final String mimeType = args.getString(1);
+			JSONObject options = args.optJSONObject(2);
+			final FrameStrip.Spec frameStrip = options != null ? FrameStrip.parse(options.opt("frameStrip")) : null;
+			probeExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						callbackContext.success(getFormatData(filePath, mimeType, frameStrip));
+					} catch (JSONException e) {
+						callbackContext.error(e.getMessage());
+					}
+				}
+			});
 			return true;
-		} else if (action.equals("captureAudio")) {
-			this.captureAudio();
+		} else if (action.equals("getFormatDataBatch")) {
+			this.getFormatDataBatch(args.getJSONArray(0), callbackContext);
+			return true;
+		} else if (action.equals("getCaptureStats")) {
+			JSONObject stats = new JSONObject();
+			stats.put("thumbnailCache", thumbnailCache.getStats());
+			stats.put("executor", captureExecutor.getStats());
+			stats.put("bitmapPool", bitmapPool.getStats());
+			JSONObject dedupe = new JSONObject();
+			MediaIndex hashes = getHashIndexIfUsed();
+			dedupe.put("hits", duplicateHits.get());
+			dedupe.put("entries", hashes == null ? 0 : hashes.getCount());
+			stats.put("dedupe", dedupe);
+			callbackContext.success(stats);
+			return true;
+		} else if (action.equals("getCaptureMetrics")) {
+			JSONObject stages = getCaptureMetrics();
+			JSONObject options = args.optJSONObject(0);
+			if (options != null && options.optBoolean("reset", false)) {
+				metrics.reset();
+			}
+			callbackContext.success(stages);
+			return true;
+		}
+
+		int type;
+		if (action.equals("captureAudio")) {
+			type = CAPTURE_AUDIO;
 		} else if (action.equals("captureImage")) {
-			this.captureImage();
+			type = CAPTURE_IMAGE;
 		} else if (action.equals("captureVideo")) {
-			this.captureVideo(duration);
+			type = CAPTURE_VIDEO;
 		} else {
 			return false;
 		}
 
+		CaptureSession session = new CaptureSession(type, callbackContext, args.optJSONObject(0));
+		sessions.put(session.id, session);
+		startCapture(session);
 		return true;
 	}
 
+	/**
+	 * Launches the capture activity for the next item of the session.
+	 */
+	private void startCapture(CaptureSession session) {
+		if (session.action == CAPTURE_AUDIO) {
+			this.captureAudio(session);
+		} else if (session.action == CAPTURE_IMAGE) {
+			this.captureImage(session);
+		} else {
+			this.captureVideo(session);
+		}
+	}
+
+	@Override
+	public void onDestroy() {
+		captureExecutor.shutdownNow();
+		probeExecutor.shutdownNow();
+		sessions.clear();
+		thumbnailCache.close();
+		synchronized (this) {
+			if (mediaIndex != null) {
+				mediaIndex.close();
+				mediaIndex = null;
+			}
+			if (hashIndex != null) {
+				hashIndex.close();
+				hashIndex = null;
+			}
+		}
+		cordova.getActivity().getApplicationContext().unregisterComponentCallbacks(trimCallbacks);
+	}
+
+	/**
+	 * @return one entry per stage that has been recorded at least once,
+	 *         with times in milliseconds
+	 */
+	private JSONObject getCaptureMetrics() throws JSONException {
+		JSONObject stages = new JSONObject();
+		for (CaptureMetrics.Stage s : CaptureMetrics.Stage.values()) {
+			long count = metrics.getCount(s);
+			if (count == 0) {
+				continue;
+			}
+			JSONObject stage = new JSONObject();
+			stage.put("count", count);
+			stage.put("meanMs", metrics.getTotalMicros(s) / (double) count / 1000);
+			stage.put("p50Ms", metrics.getPercentileMicros(s, 0.50) / 1000.0);
+			stage.put("p90Ms", metrics.getPercentileMicros(s, 0.90) / 1000.0);
+			stage.put("p99Ms", metrics.getPercentileMicros(s, 0.99) / 1000.0);
+			stage.put("maxMs", metrics.getMaxMicros(s) / 1000.0);
+			stage.put("bytes", metrics.getBytes(s));
+			stages.put(s.jsonName, stage);
+		}
+		return stages;
+	}
+
 	/**
 	 * Provides the media data file data depending on it's mime type
 	 *
@@ -138,8 +328,9 @@ public class Capture extends CordovaPlugin {
 	 *            of the file
 	 * @return a MediaFileData object
 	 */
-	private JSONObject getFormatData(String filePath, String mimeType)
+	private JSONObject getFormatData(String filePath, String mimeType, FrameStrip.Spec frameStrip)
 			throws JSONException {
+		long start = System.nanoTime();
 		Uri fileUrl = filePath.startsWith("file:") ? Uri.parse(filePath) : Uri
 				.fromFile(new File(filePath));
 		JSONObject obj = new JSONObject();
@@ -156,17 +347,329 @@ public class Capture extends CordovaPlugin {
 			mimeType = FileHelper.getMimeType(fileUrl, cordova);
 		}
 		Log.d(LOG_TAG, "Mime type = " + mimeType);
+		if (mimeType == null) {
+			mimeType = "";
+		}
+
+		// Same file, same size and mtime: reuse the last probe
+		File file = new File(fileUrl.getPath());
+		String key = "format:" + mimeType + ":" + file.getAbsolutePath();
+		String cached = lookupIndex(key, file);
+		if (cached != null) {
+			obj = new JSONObject(cached);
+		} else {
+			boolean probed = false;
+			if (mimeType.startsWith("image/") || filePath.endsWith(".jpg")) {
+				probed = getImageData(fileUrl, obj);
+			} else if (MimeTypeResolver.isIsoMedia(mimeType)) {
+				// M4A and QuickTime too, not just the types capture produces
+				probed = getAudioVideoData(filePath, obj, mimeType.startsWith("video/"));
+			}
+			// A failed probe may work once the file is complete, so don't
+			// keep its defaults
+			if (probed) {
+				storeIndex(key, file, obj.toString());
+			}
+		}
+		metrics.record(CaptureMetrics.Stage.FORMAT_DATA, start);
 
-		if (mimeType.equals(IMAGE_JPEG) || filePath.endsWith(".jpg")) {
-			obj = getImageData(fileUrl, obj);
-		} else if (mimeType.endsWith(AUDIO_3GPP)) {
-			obj = getAudioVideoData(filePath, obj, false);
-		} else if (mimeType.equals(VIDEO_3GPP) || mimeType.equals(VIDEO_MP4)) {
-			obj = getAudioVideoData(filePath, obj, true);
+		// The strip has its own cache entry, so it isn't part of the probe
+		if (frameStrip != null && mimeType.startsWith("video/")) {
+			JSONObject strip = getFrameStrip(file, frameStrip);
+			if (strip != null) {
+				obj.put("frameStrip", strip);
+			}
 		}
 		return obj;
 	}
 
+	/**
+	 * Returns the sprite sheet of frames from a video, building it only if
+	 * there isn't one yet for this version of the file.
+	 *
+	 * @return the description of the sheet, or null if it can't be built
+	 */
+	private JSONObject getFrameStrip(File video, FrameStrip.Spec spec) {
+		if (video == null) {
+			return null;
+		}
+		long start = System.nanoTime();
+		String key = "frameStrip:" + spec + ":" + video.getAbsolutePath();
+		try {
+			String cached = lookupIndex(key, video);
+			if (cached != null) {
+				JSONObject strip = new JSONObject(cached);
+				if (new File(Uri.parse(strip.getString("fullPath")).getPath()).exists()) {
+					return strip;
+				}
+			}
+			File output = new File(frameStrips.getDirectory(),
+					new ThumbnailCache.Key(video, spec.toString()).fileName());
+			JSONObject strip = FrameStrip.generate(video.getPath(), spec, output, bitmapPool);
+			storeIndex(key, video, strip.toString());
+			metrics.record(CaptureMetrics.Stage.FRAME_STRIP, start, output.length());
+			cleanScratch();
+			return strip;
+		} catch (IOException e) {
+			LOG.e(LOG_TAG, "Unable to create frame strip", e);
+		} catch (JSONException e) {
+			// this will never happen
+		}
+		return null;
+	}
+
+	/**
+	 * Reads a numeric config.xml preference. CordovaPreferences.getInteger()
+	 * would cap it at 2GB.
+	 */
+	private long getLongPreference(String name, long defaultValue) {
+		String value = preferences.getString(name, null);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			LOG.w(LOG_TAG, "Ignoring preference " + name + "=" + value);
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Queues a janitor pass over the scratch and frame strip directories,
+	 * unless one is already waiting.
+	 */
+	private void cleanScratch() {
+		if (!janitorQueued.compareAndSet(0, 1)) {
+			return;
+		}
+		boolean queued = captureExecutor.execute(CaptureExecutor.PRIORITY_ENRICHMENT, new Runnable() {
+			@Override
+			public void run() {
+				janitorQueued.set(0);
+				long start = System.nanoTime();
+				long reclaimed = scratch.trim(scratchMaxBytes, scratchMaxAgeMs)
+						+ frameStrips.trim(FRAME_STRIP_MAX_BYTES, Long.MAX_VALUE);
+				metrics.record(CaptureMetrics.Stage.SCRATCH_JANITOR, start, reclaimed);
+			}
+		});
+		if (!queued) {
+			janitorQueued.set(0);
+		}
+	}
+
+	/**
+	 * Queues a compaction of the thumbnail pack if it needs one, unless one
+	 * is already waiting.
+	 */
+	private void compactThumbnails() {
+		if (!compactionQueued.compareAndSet(0, 1)) {
+			return;
+		}
+		boolean queued = captureExecutor.execute(CaptureExecutor.PRIORITY_ENRICHMENT, new Runnable() {
+			@Override
+			public void run() {
+				compactionQueued.set(0);
+				if (thumbnailCache.needsCompaction()) {
+					thumbnailCache.compact();
+				}
+			}
+		});
+		if (!queued) {
+			compactionQueued.set(0);
+		}
+	}
+
+	/**
+	 * Hands thumbnail URLs the web view asks for to handleOpenForRead(), so
+	 * they can be used directly as the src of an img tag.
+	 */
+	@Override
+	public Uri remapUri(Uri uri) {
+		return isThumbnailUrl(uri) ? toPluginUri(uri) : null;
+	}
+
+	/**
+	 * Lets thumbnail URLs past the whitelist; they never leave the device.
+	 */
+	@Override
+	public Boolean shouldAllowRequest(String url) {
+		return url.startsWith(THUMBNAIL_URL_PREFIX) ? Boolean.TRUE : null;
+	}
+
+	/**
+	 * Serves thumbnail URLs from the thumbnail pack.
+	 */
+	@Override
+	public CordovaResourceApi.OpenForReadResult handleOpenForRead(Uri uri) throws IOException {
+		Uri original = fromPluginUri(uri);
+		if (!isThumbnailUrl(original)) {
+			throw new FileNotFoundException(uri.toString());
+		}
+		byte[] data = thumbnailCache.read(original.getLastPathSegment());
+		if (data == null) {
+			throw new FileNotFoundException(uri.toString());
+		}
+		return new CordovaResourceApi.OpenForReadResult(uri, new ByteArrayInputStream(data), "image/jpeg",
+				data.length, null);
+	}
+
+	private static boolean isThumbnailUrl(Uri uri) {
+		return uri != null && THUMBNAIL_SCHEME.equals(uri.getScheme()) && THUMBNAIL_HOST.equals(uri.getHost());
+	}
+
+	private static String thumbnailUrl(String id) {
+		return THUMBNAIL_URL_PREFIX + id;
+	}
+
+	/**
+	 * Opens the metadata index on first use.
+	 *
+	 * @return the index, or null if it can't be opened, in which case
+	 *         callers simply probe the file every time
+	 */
+	private synchronized MediaIndex getMediaIndex() {
+		if (mediaIndex == null && !mediaIndexFailed) {
+			try {
+				mediaIndex = new MediaIndex(new File(cordova.getActivity().getCacheDir(), "capture-index"));
+			} catch (IOException e) {
+				Log.e(LOG_TAG, "Unable to open media index", e);
+				mediaIndexFailed = true;
+			}
+		}
+		return mediaIndex;
+	}
+
+	private void compact(MediaIndex index) {
+		try {
+			if (index != null && index.needsCompaction()) {
+				index.compact();
+			}
+		} catch (IOException e) {
+			Log.e(LOG_TAG, "Unable to compact media index", e);
+		}
+	}
+
+	private synchronized MediaIndex getHashIndex() {
+		if (hashIndex == null && !hashIndexFailed) {
+			try {
+				hashIndex = new MediaIndex(new File(cordova.getActivity().getCacheDir(), "capture-hashes"));
+			} catch (IOException e) {
+				Log.e(LOG_TAG, "Unable to open hash index", e);
+				hashIndexFailed = true;
+			}
+		}
+		return hashIndex;
+	}
+
+	/**
+	 * @return the hash index, or null if dedupe has never been used, so
+	 *         nothing is created just to look at it
+	 */
+	private synchronized MediaIndex getHashIndexIfUsed() {
+		if (hashIndex == null && !new File(cordova.getActivity().getCacheDir(), "capture-hashes").exists()) {
+			return null;
+		}
+		return getHashIndex();
+	}
+
+	private String lookupIndex(String key, File file) {
+		MediaIndex index = getMediaIndex();
+		if (index == null || !file.exists()) {
+			return null;
+		}
+		try {
+			byte[] value = index.get(key, file.length(), file.lastModified());
+			return value == null ? null : new String(value, "UTF-8");
+		} catch (IOException e) {
+			Log.d(LOG_TAG, "Media index lookup failed: " + e);
+			return null;
+		}
+	}
+
+	private void storeIndex(String key, File file, String value) {
+		MediaIndex index = getMediaIndex();
+		if (index == null || !file.exists()) {
+			return;
+		}
+		try {
+			index.put(key, file.length(), file.lastModified(), value.getBytes("UTF-8"));
+		} catch (IOException e) {
+			Log.d(LOG_TAG, "Media index update failed: " + e);
+		}
+	}
+
+	/**
+	 * Probes a list of files on the probe pool. Each MediaFileData is sent as
+	 * a {event: "formatData"} message as soon as it is ready, in completion
+	 * order, followed by a {event: "complete"} summary.
+	 *
+	 * @param files
+	 *            entries of {fullPath, type}; plain path strings are accepted too
+	 */
+	private void getFormatDataBatch(final JSONArray files, final CallbackContext callbackContext) {
+		final int count = files.length();
+		if (count == 0) {
+			sendBatchSummary(callbackContext, 0, 0, System.nanoTime());
+			return;
+		}
+
+		final long start = System.nanoTime();
+		final AtomicInteger next = new AtomicInteger();
+		final AtomicInteger remaining = new AtomicInteger(count);
+		final AtomicInteger failed = new AtomicInteger();
+		// Each worker pulls the next index, so at most PROBE_THREADS files are
+		// open at once however long the list is.
+		Runnable worker = new Runnable() {
+			@Override
+			public void run() {
+				int index;
+				while ((index = next.getAndIncrement()) < count) {
+					JSONObject event = new JSONObject();
+					try {
+						event.put("event", "formatData");
+						event.put("index", index);
+						try {
+							JSONObject file = files.optJSONObject(index);
+							String path = file != null ? file.optString("fullPath", file.optString("localURL"))
+									: files.getString(index);
+							String type = file != null ? file.optString("type", null) : null;
+							event.put("data", getFormatData(path, type, null));
+						} catch (Exception e) {
+							failed.incrementAndGet();
+							event.put("error", createErrorObject(CAPTURE_INTERNAL_ERR, e.toString()));
+						}
+					} catch (JSONException e) {
+						// this will never happen
+					}
+					PluginResult result = new PluginResult(PluginResult.Status.OK, event);
+					result.setKeepCallback(true);
+					callbackContext.sendPluginResult(result);
+
+					if (remaining.decrementAndGet() == 0) {
+						sendBatchSummary(callbackContext, count, failed.get(), start);
+					}
+				}
+			}
+		};
+		for (int i = 0; i < Math.min(PROBE_THREADS, count); i++) {
+			probeExecutor.execute(worker);
+		}
+	}
+
+	private void sendBatchSummary(CallbackContext callbackContext, int count, int failed, long start) {
+		JSONObject summary = new JSONObject();
+		try {
+			summary.put("event", "complete");
+			summary.put("count", count);
+			summary.put("failed", failed);
+			summary.put("elapsedMs", (System.nanoTime() - start) / 1000000);
+		} catch (JSONException e) {
+			// this will never happen
+		}
+		callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, summary));
+	}
+
 	/**
 	 * Get the Image specific attributes
 	 *
@@ -174,17 +677,32 @@ public class Capture extends CordovaPlugin {
 	 *            path to the file
 	 * @param obj
 	 *            represents the Media File Data
-	 * @return a JSONObject that represents the Media File Data
+	 * @return true if the dimensions could be read
 	 * @throws JSONException
 	 */
-	private JSONObject getImageData(Uri fileUrl, JSONObject obj)
+	private boolean getImageData(Uri fileUrl, JSONObject obj)
 			throws JSONException {
+		ImageHeaderProbe.Info info = null;
+		try {
+			info = ImageHeaderProbe.probe(new File(fileUrl.getPath()));
+		} catch (IOException e) {
+			Log.d(LOG_TAG, "Unable to read image header: " + e);
+		}
+		if (info != null) {
+			obj.put("height", info.height);
+			obj.put("width", info.width);
+			obj.put("bitDepth", info.bitDepth);
+			obj.put("orientation", info.orientation);
+			return true;
+		}
+
+		// A format the header probe doesn't know, ask the platform decoder
 		BitmapFactory.Options options = new BitmapFactory.Options();
 		options.inJustDecodeBounds = true;
 		BitmapFactory.decodeFile(fileUrl.getPath(), options);
 		obj.put("height", options.outHeight);
 		obj.put("width", options.outWidth);
-		return obj;
+		return options.outWidth > 0 && options.outHeight > 0;
 	}
 
 	/**
@@ -196,11 +714,25 @@ public class Capture extends CordovaPlugin {
 	 *            represents the Media File Data
 	 * @param video
 	 *            if true get video attributes as well
-	 * @return a JSONObject that represents the Media File Data
+	 * @return true if the file could be read
 	 * @throws JSONException
 	 */
-	private JSONObject getAudioVideoData(String filePath, JSONObject obj,
+	private boolean getAudioVideoData(String filePath, JSONObject obj,
 			boolean video) throws JSONException {
+		String path = filePath.startsWith("file:") ? Uri.parse(filePath).getPath() : filePath;
+		IsoMediaParser.Info info = parseIsoMedia(new File(path));
+		if (info != null) {
+			obj.put("duration", info.durationMs / 1000);
+			obj.put("bitrate", info.bitrate);
+			obj.put("codecs", info.getCodecs());
+			if (video) {
+				obj.put("height", info.height);
+				obj.put("width", info.width);
+			}
+			return true;
+		}
+
+		// Not an MP4/3GPP container (e.g. AMR), let the platform work it out
 		MediaPlayer player = new MediaPlayer();
 		try {
 			player.setDataSource(filePath);
@@ -210,64 +742,88 @@ public class Capture extends CordovaPlugin {
 				obj.put("height", player.getVideoHeight());
 				obj.put("width", player.getVideoWidth());
 			}
+			return true;
 		} catch (IOException e) {
 			Log.d(LOG_TAG, "Error: loading video file");
+		} finally {
+			player.release();
+		}
+		return false;
+	}
+
+	/**
+	 * Reads the header of an MP4/3GPP file.
+	 *
+	 * @return the parsed header, or null if the file isn't an ISO media file
+	 */
+	private static IsoMediaParser.Info parseIsoMedia(File file) {
+		try {
+			return IsoMediaParser.parse(file);
+		} catch (IOException e) {
+			Log.d(LOG_TAG, "Unable to parse " + file + ": " + e);
+			return null;
+		} catch (RuntimeException e) {
+			// A malformed file must not take down the task probing it
+			Log.d(LOG_TAG, "Unable to parse " + file + ": " + e);
+			return null;
 		}
-		return obj;
 	}
 
 	/**
 	 * Sets up an intent to capture audio. Result handled by onActivityResult()
 	 */
-	private void captureAudio() {
+	private void captureAudio(CaptureSession session) {
 		Intent intent = new Intent(
 				android.provider.MediaStore.Audio.Media.RECORD_SOUND_ACTION);
 
 		this.cordova.startActivityForResult((CordovaPlugin) this, intent,
-				CAPTURE_AUDIO);
-	}
-
-	private String getTempDirectoryPath() {
-		File cache = null;
-
-		// Use internal storage
-		cache = cordova.getActivity().getCacheDir();
-
-		// Create the cache directory if it doesn't exist
-		cache.mkdirs();
-		return cache.getAbsolutePath();
+				session.getRequestCode());
 	}
 
 	
 	/**
 	 * Sets up an intent to capture images. Result handled by onActivityResult()
 	 */
-	private void captureImage() {
-		// Save the number of images currently on disk for later
-		this.numPics = queryImgDB(whichContentStore()).getCount();
+	private void captureImage(CaptureSession session) {
+		if (session.baselineId < 0) {
+			// Once per session, so we can tell which images the camera adds
+			session.baselineId = queryNewestImageId(whichContentStore());
+		}
 
 		Intent intent = new Intent(
 				android.provider.MediaStore.ACTION_IMAGE_CAPTURE);
 
-		// Specify file so that large image is captured and returned
-		
-		String imageName = getStringDate();
-		cur_fileName = imageName;
-		File photo = new File(getTempDirectoryPath(), "Capture.jpg");
-		//File photo = new File(getTempDirectoryPath(), cur_fileName+".jpg");
-		try {
-			// the ACTION_IMAGE_CAPTURE is run under different credentials and
-			// has to be granted write permissions
-			createWritableFile(photo);
-		} catch (IOException ex) {
-			this.fail(createErrorObject(CAPTURE_INTERNAL_ERR, ex.toString()));
-			return;
+		if (session.direct) {
+			// The camera writes straight into a pending MediaStore entry
+			Uri target = insertImage(session, true);
+			if (target == null) {
+				return;
+			}
+			session.photo = null;
+			session.directUri = target;
+			intent.putExtra(android.provider.MediaStore.EXTRA_OUTPUT, target);
+			intent.addFlags(Intent.FLAG_GRANT_WRITE_URI_PERMISSION | Intent.FLAG_GRANT_READ_URI_PERMISSION);
+		} else {
+			// Specify file so that large image is captured and returned.
+			// Every shot gets its own file, released once it has been stored.
+			File photo;
+			try {
+				photo = scratch.allocate(session.id, "jpg");
+				// the ACTION_IMAGE_CAPTURE is run under different credentials and
+				// has to be granted write permissions
+				createWritableFile(photo);
+			} catch (IOException ex) {
+				this.fail(session, createErrorObject(CAPTURE_INTERNAL_ERR, ex.toString()));
+				return;
+			}
+			session.photo = photo;
+			session.directUri = null;
+			intent.putExtra(android.provider.MediaStore.EXTRA_OUTPUT,
+					Uri.fromFile(photo));
 		}
-		intent.putExtra(android.provider.MediaStore.EXTRA_OUTPUT,
-				Uri.fromFile(photo));
 
 		this.cordova.startActivityForResult((CordovaPlugin) this, intent,
-				CAPTURE_IMAGE);
+				session.getRequestCode());
 	}
 
 	private static void createWritableFile(File file) throws IOException {
@@ -278,33 +834,18 @@ public class Capture extends CordovaPlugin {
 	/**
 	 * Sets up an intent to capture video. Result handled by onActivityResult()
 	 */
-	private void captureVideo(int duration) {
+	private void captureVideo(CaptureSession session) {
 		Intent intent = new Intent(
 				android.provider.MediaStore.ACTION_VIDEO_CAPTURE);
 
 		if (Build.VERSION.SDK_INT > 7) {
-			intent.putExtra("android.intent.extra.durationLimit", duration);
+			intent.putExtra("android.intent.extra.durationLimit", session.duration);
 		}
 		this.cordova.startActivityForResult((CordovaPlugin) this, intent,
-				CAPTURE_VIDEO);
+				session.getRequestCode());
 	}
 
-	
-	
-	/**
-	  * 获取现在时间
-	  * 
-	  * @return返回字符串格式 yyyy-MM-dd HH:mm:ss
-	  */
-	public static String getStringDate() {
-	  Date currentTime = new Date();
-	  //SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-	  SimpleDateFormat formatter = new SimpleDateFormat("yyyyMMddHHmmss");
-	  String dateString = formatter.format(currentTime);
-	  return dateString;
-	}
-	
-	
+
 	/**
 	 * Called when the video view exits.
 	 *
@@ -322,11 +863,29 @@ public class Capture extends CordovaPlugin {
 	 */
 	public void onActivityResult(int requestCode, int resultCode,
 			final Intent intent) {
+		final CaptureSession session = sessions.get(CaptureSession.idFromRequestCode(requestCode));
+		if (session == null) {
+			LOG.d(LOG_TAG, "No capture session for request code " + requestCode);
+			return;
+		}
+		final long returnedAt = System.nanoTime();
+		// Where this shot was written, before a relaunch replaces it. The
+		// tasks below own the file from here on.
+		final File photo = session.photo;
+		final Uri target = session.directUri;
+		session.photo = null;
+
+		// Pipelined: the shot is safely on disk, so start the next one now
+		// and ingest this one while the user takes it. Results are still
+		// processed one at a time in the order they came back.
+		if (resultCode == Activity.RESULT_OK && session.pipeline && session.addShot() < session.limit) {
+			startCapture(session);
+		}
 
 		// Result received okay
 		if (resultCode == Activity.RESULT_OK) {
 			// An audio clip was requested
-			if (requestCode == CAPTURE_AUDIO) {
+			if (session.action == CAPTURE_AUDIO) {
 
 				final Capture that = this;
 				Runnable captureAudio = new Runnable() {
@@ -336,22 +895,22 @@ public class Capture extends CordovaPlugin {
 						// Get the uri of the audio clip
 						Uri data = intent.getData();
 						// create a file object from the uri
-						results.put(createMediaFile(data));
+						MediaIngest.Digest digest = session.hash ? digest(data) : null;
+						that.addResult(session, createMediaFile(data, digest));
 
-						if (results.length() >= limit) {
+						if (session.getResultCount() >= session.limit) {
 							// Send Uri back to JavaScript for listening to
 							// audio
-							that.callbackContext
-									.sendPluginResult(new PluginResult(
-											PluginResult.Status.OK, results));
-						} else {
+							that.sendResults(session);
+						} else if (!session.pipeline) {
 							// still need to capture more audio clips
-							captureAudio();
+							captureAudio(session);
 						}
+						metrics.record(CaptureMetrics.Stage.ACTIVITY_RESULT, returnedAt);
 					}
 				};
-				this.cordova.getThreadPool().execute(captureAudio);
-			} else if (requestCode == CAPTURE_IMAGE) {
+				session.runInOrder(captureExecutor, captureAudio);
+			} else if (session.action == CAPTURE_IMAGE) {
 				// For some reason if I try to do:
 				// Uri data = intent.getData();
 				// It crashes in the emulator and on my phone with a null
@@ -364,76 +923,80 @@ public class Capture extends CordovaPlugin {
 					@Override
 					public void run() {
 						try {
-							// TODO Auto-generated method stub
-							// Create entry in media store for image
-							// (Don't use insertImage() because it uses default
-							// compression setting of 50 - no way to change it)
-							ContentValues values = new ContentValues();
-							values.put(
-									android.provider.MediaStore.Images.Media.MIME_TYPE,IMAGE_JPEG);
-							Uri uri = null;
-							try {
-								uri = that.cordova
-										.getActivity()
-										.getContentResolver()
-										.insert(android.provider.MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
-												values);
-							} catch (UnsupportedOperationException e) {
-								LOG.d(LOG_TAG,
-										"Can't write to external media storage.");
-								try {
-									uri = that.cordova
-											.getActivity()
-											.getContentResolver()
-											.insert(android.provider.MediaStore.Images.Media.INTERNAL_CONTENT_URI,
-													values);
-								} catch (UnsupportedOperationException ex) {
-									LOG.d(LOG_TAG,
-											"Can't write to internal media storage.");
-									that.fail(createErrorObject(
-											CAPTURE_INTERNAL_ERR,
-											"Error capturing image - no media storage found."));
+							if (target != null) {
+								if (!that.addDirectResult(session, target)) {
 									return;
 								}
-							}
-							
-							FileInputStream fis = new FileInputStream(getTempDirectoryPath() + "/Capture.jpg");
-							//FileInputStream fis = new FileInputStream(getTempDirectoryPath() + "/"+cur_fileName+".jpg");
-
-							OutputStream os = that.cordova.getActivity().getContentResolver().openOutputStream(uri);
-							byte[] buffer = new byte[4096];
-							int len;
-							while ((len = fis.read(buffer)) != -1) {
-								os.write(buffer, 0, len);
-							}
-							os.flush();
-							os.close();
-							fis.close();
-
-							// Add image to results
-							results.put(createMediaFile(uri));
+							} else {
+								int orientation = session.normalizeOrientation ? normalizeOrientation(photo) : 0;
+								MediaIngest.Digest digest = null;
+								Uri duplicate = null;
+								if (session.dedupe) {
+									digest = digest(Uri.fromFile(photo));
+									if (digest != null) {
+										duplicate = findDuplicate(digest.getSha256(), photo.length());
+									}
+								}
 
-							//暂时注释,图片存缩略图会把原图给冲掉
-							//checkForDuplicateImage();
+								if (duplicate != null) {
+									// Same bytes as an image we stored before: report that
+									// one instead of inserting, copying and thumbnailing again
+									JSONObject mediaFile = createMediaFile(duplicate, session.hash ? digest : null);
+									try {
+										mediaFile.put("duplicateOf", duplicate.toString());
+									} catch (JSONException e) {
+										// this will never happen
+									}
+									putOrientation(mediaFile, orientation);
+									that.addResult(session, addVariants(session, photo, duplicate, mediaFile));
+								} else {
+									Uri uri = that.insertImage(session, false);
+									if (uri == null) {
+										return;
+									}
+
+									// Hashing rides along with the copy when requested
+									// and the dedupe check hasn't done it already
+									long copyStart = System.nanoTime();
+									MediaIngest.Digest copyDigest = session.hash && digest == null
+											? new MediaIngest.Digest() : null;
+									MediaIngest.Result copied = MediaIngest.copy(
+											that.cordova.getActivity().getContentResolver(),
+											Uri.fromFile(photo), uri, copyDigest);
+									metrics.record(CaptureMetrics.Stage.COPY, copyStart, copied.bytes);
+									if (digest != null) {
+										rememberContent(digest.getSha256(), copied.bytes, uri);
+									} else {
+										digest = copyDigest;
+									}
+
+									// Add image to results
+									JSONObject mediaFile = createMediaFile(uri, session.hash ? digest : null);
+									putOrientation(mediaFile, orientation);
+									that.addResult(session, addVariants(session, photo, uri, mediaFile));
+								}
+							}
+							that.checkForDuplicateImage(session);
 
-							if (results.length() >= limit) {
+							if (session.getResultCount() >= session.limit) {
 								// Send Uri back to JavaScript for viewing image
-								that.callbackContext
-										.sendPluginResult(new PluginResult(
-												PluginResult.Status.OK, results));
-							} else {
+								that.sendResults(session);
+							} else if (!session.pipeline) {
 								// still need to capture more images
-								captureImage();
+								captureImage(session);
 							}
 						} catch (IOException e) {
 							e.printStackTrace();
-							that.fail(createErrorObject(CAPTURE_INTERNAL_ERR,
+							that.fail(session, createErrorObject(CAPTURE_INTERNAL_ERR,
 									"Error capturing image."));
+						} finally {
+							scratch.release(photo);
 						}
+						metrics.record(CaptureMetrics.Stage.ACTIVITY_RESULT, returnedAt);
 					}
 				};
-				this.cordova.getThreadPool().execute(captureImage);
-			} else if (requestCode == CAPTURE_VIDEO) {
+				session.runInOrder(captureExecutor, captureImage);
+			} else if (session.action == CAPTURE_VIDEO) {
 
 				final Capture that = this;
 				Runnable captureVideo = new Runnable() {
@@ -448,59 +1011,329 @@ public class Capture extends CordovaPlugin {
 							data = intent.getData();
 						}
 
-						if (data == null) {
-							File movie = new File(getTempDirectoryPath(),
-									"Capture.avi");
-							data = Uri.fromFile(movie);
-						}
-
 						// create a file object from the uri
 						if (data == null) {
-							that.fail(createErrorObject(CAPTURE_NO_MEDIA_FILES,
+							that.fail(session, createErrorObject(CAPTURE_NO_MEDIA_FILES,
 									"Error: data is null"));
 						} else {
-							results.put(createMediaFile(data));
+							MediaIngest.Digest digest = session.hash ? digest(data) : null;
+							JSONObject mediaFile = createMediaFile(data, digest);
+							if (session.frameStrip != null) {
+								JSONObject strip = getFrameStrip(webView.getResourceApi().mapUriToFile(data),
+										session.frameStrip);
+								if (strip != null) {
+									try {
+										mediaFile.put("frameStrip", strip);
+									} catch (JSONException e) {
+										// this will never happen
+									}
+								}
+							}
+							that.addResult(session, mediaFile);
 
-							if (results.length() >= limit) {
+							if (session.getResultCount() >= session.limit) {
 								// Send Uri back to JavaScript for viewing video
-								that.callbackContext
-										.sendPluginResult(new PluginResult(
-												PluginResult.Status.OK, results));
-							} else {
+								that.sendResults(session);
+							} else if (!session.pipeline) {
 								// still need to capture more video clips
-								captureVideo(duration);
+								captureVideo(session);
 							}
 						}
+						metrics.record(CaptureMetrics.Stage.ACTIVITY_RESULT, returnedAt);
 					}
 				};
-				this.cordova.getThreadPool().execute(captureVideo);
+				session.runInOrder(captureExecutor, captureVideo);
 			}
 		}
-		// If canceled
-		else if (resultCode == Activity.RESULT_CANCELED) {
-			// If we have partial results send them back to the user
-			if (results.length() > 0) {
-				this.callbackContext.sendPluginResult(new PluginResult(
-						PluginResult.Status.OK, results));
-			}
+		// If canceled, or something bad happened
+		else {
 			// user canceled the action
-			else {
-				this.fail(createErrorObject(CAPTURE_NO_MEDIA_FILES, "Canceled."));
+			final String message = resultCode == Activity.RESULT_CANCELED ? "Canceled." : "Did not complete!";
+			final Capture that = this;
+			// Queued behind shots that are still being ingested
+			session.runInOrder(captureExecutor, new Runnable() {
+				@Override
+				public void run() {
+					scratch.release(photo);
+					if (target != null) {
+						// Nothing was taken for the entry made up front
+						that.cordova.getActivity().getContentResolver().delete(target, null, null);
+					}
+					// If we have partial results send them back to the user
+					if (session.getResultCount() > 0) {
+						that.sendResults(session);
+					} else {
+						that.fail(session, createErrorObject(CAPTURE_NO_MEDIA_FILES, message));
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Creates the MediaStore entry a captured image is copied into, or that
+	 * the camera writes to directly.
+	 *
+	 * @param pending
+	 *            hide the entry from other apps until publishImage(), where
+	 *            the platform supports it
+	 * @return the entry, or null if there is no media storage, in which case
+	 *         the session has been failed
+	 */
+	private Uri insertImage(CaptureSession session, boolean pending) {
+		// Create entry in media store for image
+		// (Don't use insertImage() because it uses default
+		// compression setting of 50 - no way to change it)
+		ContentValues values = new ContentValues();
+		values.put(
+				android.provider.MediaStore.Images.Media.MIME_TYPE,IMAGE_JPEG);
+		if (pending && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+			values.put(MediaStore.MediaColumns.IS_PENDING, 1);
+		}
+		Uri uri = null;
+		long insertStart = System.nanoTime();
+		try {
+			uri = this.cordova
+					.getActivity()
+					.getContentResolver()
+					.insert(android.provider.MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+							values);
+		} catch (UnsupportedOperationException e) {
+			LOG.d(LOG_TAG,
+					"Can't write to external media storage.");
+			try {
+				uri = this.cordova
+						.getActivity()
+						.getContentResolver()
+						.insert(android.provider.MediaStore.Images.Media.INTERNAL_CONTENT_URI,
+								values);
+			} catch (UnsupportedOperationException ex) {
+				LOG.d(LOG_TAG,
+						"Can't write to internal media storage.");
+				this.fail(session, createErrorObject(
+						CAPTURE_INTERNAL_ERR,
+						"Error capturing image - no media storage found."));
+				return null;
 			}
 		}
-		// If something else
-		else {
-			// If we have partial results send them back to the user
-			if (results.length() > 0) {
-				this.callbackContext.sendPluginResult(new PluginResult(
-						PluginResult.Status.OK, results));
+		metrics.record(CaptureMetrics.Stage.MEDIASTORE_INSERT, insertStart);
+		if (uri != null) {
+			session.addStoredImage(ContentUris.parseId(uri));
+		}
+		return uri;
+	}
+
+	/**
+	 * Makes a pending entry from insertImage() visible.
+	 */
+	private void publishImage(Uri uri) {
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+			ContentValues values = new ContentValues();
+			values.put(MediaStore.MediaColumns.IS_PENDING, 0);
+			cordova.getActivity().getContentResolver().update(uri, values, null, null);
+		}
+	}
+
+	/**
+	 * Finishes an image the camera wrote straight into its MediaStore entry.
+	 * Nothing is copied: the entry is checked, hashed if needed and
+	 * published, or dropped in favour of an identical earlier image.
+	 *
+	 * @return false if the session has been failed
+	 */
+	private boolean addDirectResult(CaptureSession session, Uri target) {
+		ContentResolver resolver = cordova.getActivity().getContentResolver();
+		long size = MediaIngest.size(resolver, target);
+		if (size <= 0) {
+			// The camera app ignored EXTRA_OUTPUT or wrote nothing
+			resolver.delete(target, null, null);
+			fail(session, createErrorObject(CAPTURE_INTERNAL_ERR,
+					"Error capturing image - the camera did not write the image."));
+			return false;
+		}
+
+		MediaIngest.Digest digest = session.hash || session.dedupe ? digest(target) : null;
+		File written = webView.getResourceApi().mapUriToFile(target);
+		if (session.dedupe && digest != null) {
+			Uri duplicate = findDuplicate(digest.getSha256(), size);
+			if (duplicate != null) {
+				JSONObject mediaFile = createMediaFile(duplicate, session.hash ? digest : null);
+				try {
+					mediaFile.put("duplicateOf", duplicate.toString());
+				} catch (JSONException e) {
+					// this will never happen
+				}
+				addResult(session, addVariants(session, written, duplicate, mediaFile));
+				resolver.delete(target, null, null);
+				return true;
 			}
-			// something bad happened
-			else {
-				this.fail(createErrorObject(CAPTURE_NO_MEDIA_FILES,
-						"Did not complete!"));
+		}
+
+		publishImage(target);
+		if (session.dedupe && digest != null) {
+			rememberContent(digest.getSha256(), size, target);
+		}
+		addResult(session, addVariants(session, written, target,
+				createMediaFile(target, session.hash ? digest : null)));
+		return true;
+	}
+
+	/**
+	 * Looks for an image we stored earlier with exactly the same content.
+	 *
+	 * @return its MediaStore URI, or null if there is none or it has since
+	 *         been deleted or changed
+	 */
+	private Uri findDuplicate(String sha256, long size) {
+		MediaIndex index = getHashIndex();
+		if (index == null) {
+			return null;
+		}
+		String key = "sha256:" + sha256;
+		try {
+			byte[] value = index.get(key, size, 0);
+			if (value == null) {
+				return null;
+			}
+			Uri uri = Uri.parse(new String(value, "UTF-8"));
+			if (MediaIngest.size(cordova.getActivity().getContentResolver(), uri) == size) {
+				duplicateHits.incrementAndGet();
+				return uri;
+			}
+			index.remove(key);
+		} catch (IOException e) {
+			Log.d(LOG_TAG, "Hash index lookup failed: " + e);
+		}
+		return null;
+	}
+
+	private void rememberContent(String sha256, long size, Uri uri) {
+		MediaIndex index = getHashIndex();
+		if (index == null) {
+			return;
+		}
+		try {
+			index.put("sha256:" + sha256, size, 0, uri.toString().getBytes("UTF-8"));
+		} catch (IOException e) {
+			Log.d(LOG_TAG, "Hash index update failed: " + e);
+		}
+	}
+
+	/**
+	 * Reads a clip the capture application stored itself, once, to hash it.
+	 *
+	 * @return the digest, or null if the clip couldn't be read
+	 */
+	private MediaIngest.Digest digest(Uri data) {
+		long start = System.nanoTime();
+		MediaIngest.Digest digest = new MediaIngest.Digest();
+		try {
+			MediaIngest.Result read = MediaIngest.digest(
+					cordova.getActivity().getContentResolver(), data, digest);
+			metrics.record(CaptureMetrics.Stage.DIGEST, start, read.bytes);
+			return digest;
+		} catch (IOException e) {
+			LOG.e(LOG_TAG, "Unable to hash " + data, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Rewrites the image the camera wrote so its pixels are upright, before
+	 * it is stored. Images too large to rewrite in memory keep their EXIF
+	 * orientation instead.
+	 *
+	 * @return the orientation the image is left with
+	 */
+	private int normalizeOrientation(File photo) {
+		int orientation = ImageOrientation.read(photo.getPath());
+		if (orientation == 1) {
+			return orientation;
+		}
+		long start = System.nanoTime();
+		try {
+			if (ImageOrientation.normalize(photo, orientation, NORMALIZE_BUDGET_BYTES, bitmapPool)) {
+				metrics.record(CaptureMetrics.Stage.NORMALIZE, start, photo.length());
+				return 1;
+			}
+		} catch (IOException e) {
+			// The original is still there, so store it as it is
+			LOG.e(LOG_TAG, "Unable to normalize image orientation", e);
+		}
+		return orientation;
+	}
+
+	/**
+	 * Reports the EXIF orientation the stored image was left with, when
+	 * normalizeOrientation was asked for; anything but 1 means it was
+	 * skipped.
+	 */
+	private static void putOrientation(JSONObject mediaFile, int orientation) {
+		if (orientation > 0) {
+			try {
+				mediaFile.put("orientation", orientation);
+			} catch (JSONException e) {
+				// this will never happen
+			}
+		}
+	}
+
+	/**
+	 * Writes the downscaled copies asked for in the variants option from
+	 * the camera's image and lists them on the MediaFile. The thumbnail
+	 * comes out of the same decode and is put straight into the cache, so
+	 * the thumbnail job for this file finds it there.
+	 *
+	 * @param photo
+	 *            the file the camera wrote
+	 * @param stored
+	 *            the Uri the image was stored under
+	 * @return mediaFile
+	 */
+	private JSONObject addVariants(CaptureSession session, File photo, Uri stored, JSONObject mediaFile) {
+		if (session.variants == null || photo == null) {
+			return mediaFile;
+		}
+		long start = System.nanoTime();
+		File fp = webView.getResourceApi().mapUriToFile(stored);
+		String baseName = fp.getName();
+		int dot = baseName.lastIndexOf('.');
+		if (dot > 0) {
+			baseName = baseName.substring(0, dot);
+		}
+		try {
+			// Not in the scratch directory: the janitor must not delete
+			// files whose paths have been handed to JS
+			ImageVariants.Result result = ImageVariants.generate(photo, session.variants,
+					new File(cordova.getActivity().getCacheDir(), "capture-variants"), baseName,
+					THUMBNAIL_SIZE, THUMBNAIL_SIZE,
+					DECODE_BUDGET_BYTES, bitmapPool);
+			long bytes = 0;
+			JSONArray variants = new JSONArray();
+			for (ImageVariants.Output output : result.outputs) {
+				JSONObject variant = new JSONObject();
+				variant.put("maxEdge", output.spec.maxEdge);
+				variant.put("quality", output.spec.quality);
+				variant.put("width", output.width);
+				variant.put("height", output.height);
+				variant.put("fullPath", output.file.toURI().toString());
+				variant.put("size", output.file.length());
+				variants.put(variant);
+				bytes += output.file.length();
+			}
+			mediaFile.put("variants", variants);
+			if (result.thumbnail != null) {
+				thumbnailCache.put(new ThumbnailCache.Key(new File(fp.getPath()), IMAGE_THUMBNAIL_SPEC),
+						result.thumbnail);
 			}
+			metrics.record(CaptureMetrics.Stage.VARIANTS, start, bytes);
+		} catch (IOException e) {
+			// The original is still there, so report it without variants
+			LOG.e(LOG_TAG, "Unable to create image variants", e);
+		} catch (JSONException e) {
+			// this will never happen
 		}
+		return mediaFile;
 	}
 
 	/**
@@ -508,13 +1341,17 @@ public class Capture extends CordovaPlugin {
 	 *
 	 * @param data
 	 *            the Uri of the audio/image/video
+	 * @param digest
+	 *            the content hashes, or null if they weren't requested
 	 * @return a JSONObject that represents a File
 	 * @throws IOException
 	 */
-	private JSONObject createMediaFile(Uri data) {
+	private JSONObject createMediaFile(Uri data, MediaIngest.Digest digest) {
+		long start = System.nanoTime();
 		File fp = webView.getResourceApi().mapUriToFile(data);
 		JSONObject obj = new JSONObject();
 
+		long lookupStart = System.nanoTime();
 		Class webViewClass = webView.getClass();
 		PluginManager pm = null;
 		try {
@@ -535,6 +1372,7 @@ public class Capture extends CordovaPlugin {
 		FileUtils filePlugin = (FileUtils) pm.getPlugin("File");
 		LocalFilesystemURL url = filePlugin.filesystemURLforLocalPath(fp
 				.getAbsolutePath());
+		metrics.record(CaptureMetrics.Stage.PLUGIN_LOOKUP, lookupStart);
 
 		try {
 			// File properties
@@ -543,92 +1381,79 @@ public class Capture extends CordovaPlugin {
 			if (url != null) {
 				obj.put("localURL", url.toString());
 			}
-			// Because of an issue with MimeTypeMap.getMimeTypeFromExtension()
-			// all .3gpp files
-			// are reported as video/3gpp. I'm doing this hacky check of the URI
-			// to see if it
-			// is stored in the audio or video content store.
-			if (fp.getAbsoluteFile().toString().endsWith(".3gp")
-					|| fp.getAbsoluteFile().toString().endsWith(".3gpp")) {
-
-				if (data.toString().contains("/audio/")) {
-					obj.put("type", AUDIO_3GPP);
-
-				} else {
-					obj.put("type", VIDEO_3GPP);
-
-				}
-			} else {
-				obj.put("type",
-						FileHelper.getMimeType(Uri.fromFile(fp), cordova));
+			// The .3gp extension says nothing about whether the file holds
+			// audio only, so look at its tracks. Only if it can't be read do
+			// we go by the content store the URI points into.
+			String type = FileHelper.getMimeType(Uri.fromFile(fp), cordova);
+			if (VIDEO_3GPP.equals(type)) {
+				String sniffed = FileHelper.sniff(fp);
+				boolean audio = sniffed != null ? sniffed.startsWith("audio/")
+						: data.toString().contains("/audio/");
+				type = audio ? AUDIO_3GPP : VIDEO_3GPP;
+			}
+			if (type == null) {
+				type = "";
 			}
+			obj.put("type", type);
 
 			obj.put("lastModifiedDate", fp.lastModified());
 			obj.put("size", fp.length());
 
-			if (data.toString().contains("/audio/")
-					|| data.toString().contains("/video/")) {
+			if (type.startsWith("audio/") || type.startsWith("video/")) {
 				// 获取多媒体时长
-				final MediaPlayer player = new MediaPlayer();
-				try {
-					player.setDataSource(fp.getPath().toString());
-					player.prepare();
-
-					int size = player.getDuration();
-					//String timelong = size / 1000 + "s";
-					String timelong = (size / 1000)+"";
-
-					obj.put("fileDuration", timelong);
-					Log.e("多媒体时长>>>>> ", timelong);
-
-				} catch (IllegalArgumentException e) {
-					e.printStackTrace();
-				} catch (SecurityException e) {
-					e.printStackTrace();
-				} catch (IllegalStateException e) {
-					e.printStackTrace();
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-				player.setOnPreparedListener(new OnPreparedListener() {
+				long probeStart = System.nanoTime();
+				String durationKey = "duration:" + fp.getAbsolutePath();
+				String cachedDuration = lookupIndex(durationKey, fp);
+				IsoMediaParser.Info info = cachedDuration == null ? parseIsoMedia(fp) : null;
+				if (cachedDuration != null) {
+					obj.put("fileDuration", cachedDuration);
+				} else if (info != null) {
+					obj.put("fileDuration", (info.durationMs / 1000) + "");
+				} else {
+					final MediaPlayer player = new MediaPlayer();
+					try {
+						player.setDataSource(fp.getPath().toString());
+						player.prepare();
 
-					@Override
-					public void onPrepared(MediaPlayer mp) {
-						// TODO Auto-generated method stub
 						int size = player.getDuration();
-						String timelong = size / 1000 + "s";
+						//String timelong = size / 1000 + "s";
+						String timelong = (size / 1000)+"";
 
+						obj.put("fileDuration", timelong);
 						Log.e("多媒体时长>>>>> ", timelong);
+
+					} catch (IllegalArgumentException e) {
+						e.printStackTrace();
+					} catch (SecurityException e) {
+						e.printStackTrace();
+					} catch (IllegalStateException e) {
+						e.printStackTrace();
+					} catch (IOException e) {
+						e.printStackTrace();
+					} finally {
+						player.release();
 					}
-				});
+				}
+				if (cachedDuration == null && obj.has("fileDuration")) {
+					storeIndex(durationKey, fp, obj.getString("fileDuration"));
+				}
+				metrics.record(CaptureMetrics.Stage.MEDIA_PROBE, probeStart);
 			}else {
 				obj.put("fileDuration", "0");
 			}
 		    obj.put("fileThumbnailPath", "");
-			if (data.toString().contains("/video/")) {
-				 ImageView videoThumbnail = null;  
-//				  imageThumbnail = (ImageView) findViewById(R.id.image_thumbnail);  
-//			        videoThumbnail = (ImageView) findViewById(R.id.video_thumbnail);  
-				  Bitmap videoBitmap = getVideoThumbnail(fp.getPath().toString(), 300, 300, MediaStore.Images.Thumbnails.MINI_KIND);
-				    //Log.d("videoBitmap  >>> ", videoBitmap.toString());
-			        //videoThumbnail.setImageBitmap(getVideoThumbnail(fp.getPath().toString(), 100, 100, MediaStore.Images.Thumbnails.MICRO_KIND));  
-				    String  thumPath = saveThumbnail(videoBitmap);
-				    obj.put("fileThumbnailPath", thumPath);
-				    Log.d("thumPath >>>> ", thumPath);
+			if (digest != null) {
+				obj.put("sha256", digest.getSha256());
+				obj.put("crc32", digest.getCrc32());
 			}
-			
-			if (data.toString().contains("images")) {
-				 ImageView videoThumbnail = null;  
-//				  imageThumbnail = (ImageView) findViewById(R.id.image_thumbnail);  
-//			        videoThumbnail = (ImageView) findViewById(R.id.video_thumbnail);  
-				  Bitmap imageThumbnail = getImageThumbnail(fp.getPath().toString(), 300, 300);
-				    //Log.d("videoBitmap  >>> ", videoBitmap.toString());
-			        //videoThumbnail.setImageBitmap(getVideoThumbnail(fp.getPath().toString(), 100, 100, MediaStore.Images.Thumbnails.MICRO_KIND));  
-				    String  thumPath = saveThumbnail(imageThumbnail);
-				    obj.put("fileThumbnailPath", thumPath);
-				    Log.d("thumPath >>>> ", thumPath);
+			// Thumbnails are produced after the result has been delivered,
+			// see deliver(). The handle lets JS match them up.
+			if (type.startsWith("video/")) {
+				obj.put("thumbnailId", queueThumbnail(fp.getPath(), true));
+			} else if (type.startsWith("image/")) {
+				obj.put("thumbnailId", queueThumbnail(fp.getPath(), false));
 			}
-			
+
 //			if (data.toString().contains("/video/")) {
 //				  ImageView imageThumbnail = null;  
 //				  Bitmap imgBitmap = getImageThumbnail(fp.getPath().toString(), 100, 100);
@@ -642,142 +1467,189 @@ public class Capture extends CordovaPlugin {
 			// this will never happen
 			e.printStackTrace();
 		}
+		metrics.record(CaptureMetrics.Stage.CREATE_MEDIA_FILE, start, fp.length());
 		return obj;
 	}
-	
-	
-	private String saveThumbnail(Bitmap bitmap)
-	{
-		 //Bitmap bitmap = (Bitmap) bundle.get("data");// 获取相机返回的数据，并转换为Bitmap图片格式
-         FileOutputStream os = null;
-         
-         //照片的命名，目标文件夹下，以当前时间数字串为名称，即可确保每张照片名称不相同。网上流传的其他Demo这里的照片名称都写死了，则会发生无论拍照多少张，后一张总会把前一张照片覆盖。细心的同学还可以设置这个字符串，比如加上“ＩＭＧ”字样等；
-         //然后就会发现ｓｄ卡中ｍｙｉｍａｇｅ这个文件夹下，会保存刚刚调用相机拍出来的照片，照片名称不会重复。
-         String str=null;
-         Date date=null;
-         SimpleDateFormat format = new SimpleDateFormat("yyyyMMddHHmmss");//获取当前时间，进一步转化为字符串
-         date =new Date();
-         str=format.format(date);
-         //String fileName = "/sdcard/myImage/"+str+".jpg";
-         String fileName = str+".jpg";
-//     	String imageName = getStringDate();
-//		cur_fileName = imageName;
-         //FileInputStream fis = new FileInputStream(getTempDirectoryPath() + "/Capture.jpg");
- 		 File photo = new File(getTempDirectoryPath(), fileName);
- 		 //new File(dir, name)
-         //File file = new File("/sdcard/myImage/");
-         //file.mkdirs();// 创建文件夹，名称为myimage
- 		 
-			final Capture that = this;
 
- 		ContentValues values = new ContentValues();
-		values.put(
-				android.provider.MediaStore.Images.Media.MIME_TYPE,IMAGE_JPEG);
-		Uri uri = null;
+	/**
+	 * Remembers a thumbnail that has to be generated once the result it
+	 * belongs to has been sent.
+	 *
+	 * @return the handle reported to JS as thumbnailId
+	 */
+	private int queueThumbnail(String path, boolean video) {
+		int id = nextThumbnailId.incrementAndGet();
+		pendingThumbnails.put(id, new ThumbnailRequest(id, path, video));
+		return id;
+	}
+
+	/**
+	 * Records a finished MediaFile. In streaming mode it is sent to JS right
+	 * away as a {event: "mediaFile"} message instead of being held until the
+	 * whole capture is done.
+	 */
+	private void addResult(CaptureSession session, JSONObject mediaFile) {
+		int index = session.addResult(mediaFile);
+		if (index < 0) {
+			// The session failed while this file was being ingested
+			dropThumbnail(mediaFile);
+			return;
+		}
+		if (!session.streamResults) {
+			return;
+		}
+		JSONObject event = new JSONObject();
 		try {
-			uri = that.cordova
-					.getActivity()
-					.getContentResolver()
-					.insert(android.provider.MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
-							values);
-		} catch (UnsupportedOperationException e) {
-			LOG.d(LOG_TAG,
-					"Can't write to external media storage.");
+			event.put("event", "mediaFile");
+			event.put("index", index);
+			event.put("mediaFile", mediaFile);
+		} catch (JSONException e) {
+			// this will never happen
+		}
+		JSONArray files = new JSONArray();
+		files.put(mediaFile);
+		deliver(session, new PluginResult(PluginResult.Status.OK, event), false, files);
+	}
+
+	/**
+	 * Forgets the queued thumbnail of a file that will never be delivered.
+	 */
+	private void dropThumbnail(JSONObject mediaFile) {
+		if (mediaFile != null && mediaFile.has("thumbnailId")) {
+			pendingThumbnails.remove(mediaFile.optInt("thumbnailId"));
+		}
+	}
+
+	/**
+	 * Sends the capture results to JavaScript: the collected array, or a
+	 * {event: "complete"} message if they have already been streamed.
+	 */
+	private void sendResults(CaptureSession session) {
+		sessions.remove(session.id);
+		cleanScratch();
+		if (session.streamResults) {
+			JSONObject event = new JSONObject();
 			try {
-				uri = that.cordova
-						.getActivity()
-						.getContentResolver()
-						.insert(android.provider.MediaStore.Images.Media.INTERNAL_CONTENT_URI,
-								values);
-			} catch (UnsupportedOperationException ex) {
-				LOG.d(LOG_TAG,
-						"Can't write to internal media storage.");
-				that.fail(createErrorObject(
-						CAPTURE_INTERNAL_ERR,
-						"Error capturing image - no media storage found."));
-				return "";
+				event.put("event", "complete");
+				event.put("count", session.getResultCount());
+			} catch (JSONException e) {
+				// this will never happen
+			}
+			deliver(session, new PluginResult(PluginResult.Status.OK, event), true, new JSONArray());
+		} else {
+			JSONArray results = session.getResults();
+			deliver(session, new PluginResult(PluginResult.Status.OK, results), true, results);
+		}
+	}
+
+	/**
+	 * Sends a result message and then generates thumbnails for the given
+	 * files in the background. Each thumbnail is delivered as a
+	 * {event: "thumbnail"} message on the same callback, which is kept alive
+	 * until the final message and the last thumbnail have been sent.
+	 */
+	private void deliver(final CaptureSession session, PluginResult result, boolean last, JSONArray files) {
+		final List<ThumbnailRequest> requests = new ArrayList<ThumbnailRequest>();
+		for (int i = 0; i < files.length(); i++) {
+			JSONObject file = files.optJSONObject(i);
+			if (file != null && file.has("thumbnailId")) {
+				ThumbnailRequest request = pendingThumbnails.remove(file.optInt("thumbnailId"));
+				if (request != null) {
+					requests.add(request);
+				}
+			}
+		}
+
+		// Count the thumbnails before sending, so the callback outlives them,
+		// but only start them afterwards, so JS knows the ids first
+		long sendStart = System.nanoTime();
+		session.send(result, last, requests.size());
+		metrics.record(CaptureMetrics.Stage.SEND_RESULT, sendStart);
+
+		for (final ThumbnailRequest request : requests) {
+			boolean queued = captureExecutor.execute(CaptureExecutor.PRIORITY_THUMBNAIL, new Runnable() {
+				@Override
+				public void run() {
+					String path = "";
+					try {
+						path = createThumbnail(request);
+					} catch (RuntimeException e) {
+						Log.e(LOG_TAG, "Error creating thumbnail for " + request.path, e);
+					}
+					sendThumbnail(session, request, path);
+				}
+			});
+			if (!queued) {
+				// Too much work queued; the file goes without a thumbnail
+				sendThumbnail(session, request, "");
 			}
 		}
+	}
+
+	private void sendThumbnail(CaptureSession session, ThumbnailRequest request, String path) {
+		JSONObject event = new JSONObject();
 		try {
-			OutputStream oos = that.cordova.getActivity().getContentResolver().openOutputStream(uri);
-			
-			bitmap.compress(Bitmap.CompressFormat.JPEG, 100, oos);// 把数据写入文件
-			
-			File fp = webView.getResourceApi().mapUriToFile(uri);
+			event.put("event", "thumbnail");
+			event.put("thumbnailId", request.id);
+			event.put("fileThumbnailPath", path);
+		} catch (JSONException e) {
+			// this will never happen
+		}
+		session.sendThumbnail(new PluginResult(PluginResult.Status.OK, event));
+	}
 
-	        String   imgPath =  fp.getPath();
-	             
-	        return  imgPath;
-			
-		} catch (FileNotFoundException e1) {
-			// TODO Auto-generated catch block
-			e1.printStackTrace();
-		}
-       
-//        try {
-//        	 os = new FileOutputStream(photo.getPath().toString());
-//             bitmap.compress(Bitmap.CompressFormat.JPEG, 100, os);// 把数据写入文件
-//             String   imgPath =  photo.getPath();
-//             return  imgPath;
-//             
-//         } catch (FileNotFoundException e) {
-//             e.printStackTrace();
-//         } finally {
-//             try {
-//            	 os.flush();
-//            	 os.close();
-//             } catch (IOException e) {
-//                 e.printStackTrace();
-//             }
-//         }
-        //String   imgPath =  photo.getPath();
-        return  "";
-
-		
+	/**
+	 * Returns the URL of the thumbnail for the request, generating it only
+	 * if the cache doesn't already have one for this version of the file.
+	 */
+	private String createThumbnail(ThumbnailRequest request) {
+		long start = System.nanoTime();
+		ThumbnailCache.Key key = new ThumbnailCache.Key(new File(request.path),
+				request.video ? VIDEO_THUMBNAIL_SPEC : IMAGE_THUMBNAIL_SPEC);
+		String path = thumbnailCache.get(key);
+		if (path == null) {
+			Bitmap bitmap = request.video
+					? getVideoThumbnail(request.path, THUMBNAIL_SIZE, THUMBNAIL_SIZE,
+							MediaStore.Images.Thumbnails.MINI_KIND)
+					: getImageThumbnail(request.path, THUMBNAIL_SIZE, THUMBNAIL_SIZE);
+			if (bitmap != null) {
+				path = thumbnailCache.put(key, bitmap);
+				if (thumbnailCache.needsCompaction()) {
+					compactThumbnails();
+				}
+			}
+		}
+		metrics.record(CaptureMetrics.Stage.THUMBNAIL, start);
+		return path == null ? "" : thumbnailUrl(path);
 	}
-	
+
+	private static class ThumbnailRequest {
+		final int id;
+		final String path;
+		final boolean video;
+
+		ThumbnailRequest(int id, String path, boolean video) {
+			this.id = id;
+			this.path = path;
+			this.video = video;
+		}
+	}
+
 	/** 
      * 根据指定的图像路径和大小来获取缩略图 
      * 此方法有两点好处： 
-     *     1. 使用较小的内存空间，第一次获取的bitmap实际上为null，只是为了读取宽度和高度， 
-     *        第二次读取的bitmap是根据比例压缩过的图像，第三次读取的bitmap是所要的缩略图。 
-     *     2. 缩略图对于原图像来讲没有拉伸，这里使用了2.2版本的新工具ThumbnailUtils，使 
-     *        用这个工具生成的图像不会被拉伸。 
+     *     1. 内存有上限，解码用的临时bitmap不超过DECODE_BUDGET_BYTES，再大的图片
+     *        也只按2的幂采样，或用BitmapRegionDecoder分条解码需要的区域。
+     *     2. 缩略图对于原图像来讲没有拉伸，居中裁剪。
      * @param imagePath 图像的路径 
      * @param width 指定输出图像的宽度 
      * @param height 指定输出图像的高度 
      * @return 生成的缩略图 
      */  
     private Bitmap getImageThumbnail(String imagePath, int width, int height) {  
-        Bitmap bitmap = null;  
-        BitmapFactory.Options options = new BitmapFactory.Options();  
-        options.inJustDecodeBounds = true;  
-        // 获取这个图片的宽和高，注意此处的bitmap为null  
-        bitmap = BitmapFactory.decodeFile(imagePath, options);  
-        options.inJustDecodeBounds = false; // 设为 false  
-        // 计算缩放比  
-        int h = options.outHeight;  
-        int w = options.outWidth;  
-        int beWidth = w / width;  
-        int beHeight = h / height;  
-        int be = 1;  
-        if (beWidth < beHeight) {  
-            be = beWidth;  
-        } else {  
-            be = beHeight;  
-        }  
-        if (be <= 0) {  
-            be = 1;  
-        }  
-        options.inSampleSize = be;  
-        // 重新读入图片，读取缩放后的bitmap，注意这次要把options.inJustDecodeBounds 设为 false  
-        bitmap = BitmapFactory.decodeFile(imagePath, options);  
-        // 利用ThumbnailUtils来创建缩略图，这里要指定要缩放哪个Bitmap对象  
-		bitmap = ThumbnailUtils.extractThumbnail(bitmap, width, height,  
-                ThumbnailUtils.OPTIONS_RECYCLE_INPUT);  
-        return bitmap;  
+        return Downscaler.thumbnail(imagePath, width, height, DECODE_BUDGET_BYTES, bitmapPool);
     }  
-  
+
     /** 
      * 获取视频的缩略图 
      * 先通过ThumbnailUtils来创建一个视频的缩略图，然后再利用ThumbnailUtils来生成指定大小的缩略图。 
@@ -787,18 +1659,20 @@ public class Capture extends CordovaPlugin {
      * @param height 指定输出视频缩略图的高度度 
      * @param kind 参照MediaStore.Images.Thumbnails类中的常量MINI_KIND和MICRO_KIND。 
      *            其中，MINI_KIND: 512 x 384，MICRO_KIND: 96 x 96 
-     * @return 指定大小的视频缩略图 
+     * @return 指定大小的视频缩略图，视频无法读取时为null 
      */  
     private Bitmap getVideoThumbnail(String videoPath, int width, int height,  
             int kind) {  
         Bitmap bitmap = null;  
         // 获取视频的缩略图  
         bitmap = ThumbnailUtils.createVideoThumbnail(videoPath, kind);  
-        System.out.println("w"+bitmap.getWidth());  
-        System.out.println("h"+bitmap.getHeight());  
-        bitmap = ThumbnailUtils.extractThumbnail(bitmap, width, height,  
-                ThumbnailUtils.OPTIONS_RECYCLE_INPUT);  
-        return bitmap;  
+        if (bitmap == null) {
+            // Unreadable or corrupt video
+            return null;
+        }
+        Bitmap thumbnail = bitmapPool.extractThumbnail(bitmap, width, height);
+        bitmapPool.put(bitmap);
+        return thumbnail;  
     }  
     
     
@@ -819,40 +1693,117 @@ public class Capture extends CordovaPlugin {
 	 *
 	 * @param err
 	 */
-	public void fail(JSONObject err) {
-		this.callbackContext.error(err);
+	private void fail(CaptureSession session, JSONObject err) {
+		sessions.remove(session.id);
+		// Still set only while a relaunched camera is writing to it; its
+		// result will find no session, so leave the file to the janitor
+		scratch.abandon(session.photo);
+		session.photo = null;
+		cleanScratch();
+		session.fail(err);
+		// Files held back for the final array never reach deliver(), so
+		// their thumbnails would stay queued forever. Once failed the
+		// session takes no more results, so the array is complete.
+		JSONArray results = session.getResults();
+		for (int i = 0; i < results.length(); i++) {
+			dropThumbnail(results.optJSONObject(i));
+		}
 	}
 
 	/**
-	 * Creates a cursor that can be used to determine how many images we have.
+	 * Looks up the highest image id in the content store. This is a single
+	 * row read from the primary key index, however many images there are.
 	 *
-	 * @return a cursor
+	 * @return the id, 0 if the store is empty or -1 if it can't be queried
+	 */
+	private long queryNewestImageId(Uri contentStore) {
+		Cursor cursor = queryImages(contentStore, null, null, false, 1);
+		if (cursor == null) {
+			return -1;
+		}
+		try {
+			return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Queries image ids, newest or oldest first, returning at most limit
+	 * rows.
 	 */
-	private Cursor queryImgDB(Uri contentStore) {
-		return this.cordova
-				.getActivity()
-				.getContentResolver()
-				.query(contentStore,
-						new String[] { MediaStore.Images.Media._ID }, null,
-						null, null);
+	private Cursor queryImages(Uri contentStore, String selection, String[] selectionArgs,
+			boolean ascending, int limit) {
+		ContentResolver resolver = this.cordova.getActivity().getContentResolver();
+		String[] projection = new String[] { MediaStore.Images.Media._ID };
+		try {
+			if (Build.VERSION.SDK_INT >= 26) {
+				Bundle args = new Bundle();
+				args.putString(ContentResolver.QUERY_ARG_SQL_SELECTION, selection);
+				args.putStringArray(ContentResolver.QUERY_ARG_SQL_SELECTION_ARGS, selectionArgs);
+				args.putStringArray(ContentResolver.QUERY_ARG_SORT_COLUMNS,
+						new String[] { MediaStore.Images.Media._ID });
+				args.putInt(ContentResolver.QUERY_ARG_SORT_DIRECTION, ascending
+						? ContentResolver.QUERY_SORT_DIRECTION_ASCENDING
+						: ContentResolver.QUERY_SORT_DIRECTION_DESCENDING);
+				args.putInt(ContentResolver.QUERY_ARG_LIMIT, limit);
+				return resolver.query(contentStore, projection, args, null);
+			}
+			// Older providers take the limit as part of the sort order
+			return resolver.query(contentStore, projection, selection, selectionArgs,
+					MediaStore.Images.Media._ID + (ascending ? " ASC" : " DESC") + " LIMIT " + limit);
+		} catch (RuntimeException e) {
+			LOG.e(LOG_TAG, "Unable to query " + contentStore, e);
+			return null;
+		}
 	}
 
 	/**
-	 * Used to find out if we are in a situation where the Camera Intent adds to
-	 * images to the content store.
+	 * Used to find out if we are in a situation where the Camera Intent adds
+	 * images to the content store. Only images added since the session's
+	 * first shot are looked at, apart from the ones we stored ourselves, and
+	 * one is deleted only if the camera added exactly one.
 	 */
-	private void checkForDuplicateImage() {
+	private void checkForDuplicateImage(CaptureSession session) {
+		if (session.baselineId < 0) {
+			// No baseline, so no way to tell the camera's images from others
+			return;
+		}
+		List<Long> ours = session.getStoredImages();
+		StringBuilder selection = new StringBuilder(MediaStore.Images.Media._ID).append(" > ?");
+		String[] selectionArgs = new String[ours.size() + 1];
+		selectionArgs[0] = Long.toString(session.baselineId);
+		if (!ours.isEmpty()) {
+			selection.append(" AND ").append(MediaStore.Images.Media._ID).append(" NOT IN (");
+			for (int i = 0; i < ours.size(); i++) {
+				selection.append(i == 0 ? "?" : ", ?");
+				selectionArgs[i + 1] = Long.toString(ours.get(i));
+			}
+			selection.append(')');
+		}
+
 		Uri contentStore = whichContentStore();
-		Cursor cursor = queryImgDB(contentStore);
-		int currentNumOfImages = cursor.getCount();
-
-		// delete the duplicate file if the difference is 2
-		if ((currentNumOfImages - numPics) == 2) {
-			cursor.moveToLast();
-			int id = Integer.valueOf(cursor.getString(cursor
-					.getColumnIndex(MediaStore.Images.Media._ID))) - 1;
-			Uri uri = Uri.parse(contentStore + "/" + id);
-			this.cordova.getActivity().getContentResolver().delete(uri, null, null);
+		Cursor cursor = queryImages(contentStore, selection.toString(), selectionArgs, true, 2);
+		if (cursor == null) {
+			return;
+		}
+		long duplicate = -1;
+		try {
+			// delete the duplicate file if the camera added exactly one
+			if (cursor.getCount() == 1 && cursor.moveToFirst()) {
+				duplicate = cursor.getLong(0);
+			}
+		} finally {
+			cursor.close();
+		}
+		if (duplicate >= 0) {
+			Uri uri = ContentUris.withAppendedId(contentStore, duplicate);
+			try {
+				this.cordova.getActivity().getContentResolver().delete(uri, null, null);
+			} catch (RuntimeException e) {
+				// From Android 10 another app's image can't be deleted without asking
+				LOG.d(LOG_TAG, "Unable to delete duplicate " + uri + ": " + e);
+			}
 		}
 	}
 
@@ -0,0 +1,167 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.mediacapture;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The plugin's own thread pool for post-capture work, so it neither waits
+ * behind nor starves other plugins on the shared cordova pool.
+ *
+ * Queued tasks run in priority order: result delivery first, then
+ * thumbnails, then optional enrichment. Only result tasks may queue
+ * without limit. Thumbnail and enrichment tasks are rejected once the
+ * queue holds more than the configured number of tasks, and the caller
+ * decides how to degrade.
+ */
+public class CaptureExecutor {
+
+    public static final int PRIORITY_RESULT = 0;
+    public static final int PRIORITY_THUMBNAIL = 1;
+    public static final int PRIORITY_ENRICHMENT = 2;
+
+    private static final String[] PRIORITY_NAMES = { "result", "thumbnail", "enrichment" };
+
+    private final ThreadPoolExecutor executor;
+    private final int capacity;
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+    // Counters indexed by priority
+    private final AtomicLongArray submitted = new AtomicLongArray(PRIORITY_NAMES.length);
+    private final AtomicLongArray completed = new AtomicLongArray(PRIORITY_NAMES.length);
+    private final AtomicLongArray rejected = new AtomicLongArray(PRIORITY_NAMES.length);
+    private final AtomicLongArray waitNanos = new AtomicLongArray(PRIORITY_NAMES.length);
+    private final AtomicLongArray maxWaitNanos = new AtomicLongArray(PRIORITY_NAMES.length);
+
+    /**
+     * @param threads the number of worker threads
+     * @param capacity how many tasks may be queued before thumbnail and
+     *            enrichment work is rejected
+     */
+    public CaptureExecutor(int threads, int capacity) {
+        this.capacity = capacity;
+        final AtomicInteger count = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, "capture-" + count.incrementAndGet());
+                    }
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queues a task.
+     *
+     * @return false if the task was rejected and will not run
+     */
+    public boolean execute(int priority, Runnable command) {
+        int depth = executor.getQueue().size();
+        if (priority != PRIORITY_RESULT && depth >= capacity) {
+            rejected.incrementAndGet(priority);
+            return false;
+        }
+        submitted.incrementAndGet(priority);
+        try {
+            executor.execute(new Task(priority, sequence.incrementAndGet(), command));
+        } catch (RejectedExecutionException e) {
+            // Shut down
+            rejected.incrementAndGet(priority);
+            return false;
+        }
+        depth = executor.getQueue().size();
+        int max = maxQueueDepth.get();
+        while (depth > max && !maxQueueDepth.compareAndSet(max, depth)) {
+            max = maxQueueDepth.get();
+        }
+        return true;
+    }
+
+    public void shutdownNow() {
+        executor.shutdownNow();
+    }
+
+    public JSONObject getStats() throws JSONException {
+        JSONObject stats = new JSONObject();
+        stats.put("queueDepth", executor.getQueue().size());
+        stats.put("maxQueueDepth", maxQueueDepth.get());
+        stats.put("capacity", capacity);
+        stats.put("activeThreads", executor.getActiveCount());
+        for (int i = 0; i < PRIORITY_NAMES.length; i++) {
+            long done = completed.get(i);
+            JSONObject priority = new JSONObject();
+            priority.put("submitted", submitted.get(i));
+            priority.put("completed", done);
+            priority.put("rejected", rejected.get(i));
+            priority.put("averageWaitMs", done == 0 ? 0 : waitNanos.get(i) / done / 1000000);
+            priority.put("maxWaitMs", maxWaitNanos.get(i) / 1000000);
+            stats.put(PRIORITY_NAMES[i], priority);
+        }
+        return stats;
+    }
+
+    private class Task implements Runnable, Comparable<Task> {
+        final int priority;
+        final long sequence;
+        final Runnable command;
+        final long queuedAt = System.nanoTime();
+
+        Task(int priority, long sequence, Runnable command) {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.command = command;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (priority != other.priority) {
+                return priority < other.priority ? -1 : 1;
+            }
+            // FIFO within a priority
+            return sequence < other.sequence ? -1 : (sequence > other.sequence ? 1 : 0);
+        }
+
+        @Override
+        public void run() {
+            long wait = System.nanoTime() - queuedAt;
+            waitNanos.addAndGet(priority, wait);
+            long max = maxWaitNanos.get(priority);
+            while (wait > max && !maxWaitNanos.compareAndSet(priority, max, wait)) {
+                max = maxWaitNanos.get(priority);
+            }
+            try {
+                command.run();
+            } finally {
+                completed.incrementAndGet(priority);
+            }
+        }
+    }
+}
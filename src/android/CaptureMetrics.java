@@ -0,0 +1,176 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.mediacapture;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histograms for the stages between the capture activity returning
+ * and the result reaching JS.
+ *
+ * Durations are taken from System.nanoTime() and recorded in microseconds
+ * into fixed buckets: exact below 8us, then 8 buckets per power of two, so
+ * a reported percentile is within 1/8 of the true value. Recording only
+ * touches preallocated atomic arrays and never allocates. Plain Java, so
+ * it runs on the JVM the benchmarks and tests use.
+ */
+public class CaptureMetrics {
+
+    public enum Stage {
+        /** From onActivityResult to the item's result being sent */
+        ACTIVITY_RESULT("activityResult"),
+        MEDIASTORE_INSERT("mediaStoreInsert"),
+        COPY("copy"),
+        /** Downscaled copies requested with the variants option */
+        VARIANTS("variants"),
+        /** Rewriting an image upright for the normalizeOrientation option */
+        NORMALIZE("normalize"),
+        /** Building a video's frameStrip sprite sheet */
+        FRAME_STRIP("frameStrip"),
+        /** Hashing audio and video the capture application stored itself */
+        DIGEST("digest"),
+        CREATE_MEDIA_FILE("createMediaFile"),
+        PLUGIN_LOOKUP("pluginLookup"),
+        MEDIA_PROBE("mediaProbe"),
+        THUMBNAIL("thumbnail"),
+        SEND_RESULT("sendResult"),
+        FORMAT_DATA("formatData"),
+        /** A pass over the scratch directory; bytes are the bytes reclaimed */
+        SCRATCH_JANITOR("scratchJanitor");
+
+        final String jsonName;
+
+        Stage(String jsonName) {
+            this.jsonName = jsonName;
+        }
+    }
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Covers up to 2^32us, about 70 minutes
+    private static final int BUCKETS = (31 - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private static final Stage[] STAGES = Stage.values();
+
+    private final AtomicLongArray buckets = new AtomicLongArray(STAGES.length * BUCKETS);
+    private final AtomicLongArray counts = new AtomicLongArray(STAGES.length);
+    private final AtomicLongArray totalMicros = new AtomicLongArray(STAGES.length);
+    private final AtomicLongArray maxMicros = new AtomicLongArray(STAGES.length);
+    private final AtomicLongArray bytes = new AtomicLongArray(STAGES.length);
+
+    /**
+     * Records a stage that started at startNanos, a System.nanoTime() value,
+     * and ended now.
+     */
+    public void record(Stage stage, long startNanos) {
+        record(stage, startNanos, 0);
+    }
+
+    /**
+     * Records a stage along with the number of bytes it processed.
+     */
+    public void record(Stage stage, long startNanos, long processedBytes) {
+        long micros = Math.max(0, (System.nanoTime() - startNanos) / 1000);
+        int s = stage.ordinal();
+        buckets.incrementAndGet(s * BUCKETS + bucketFor(micros));
+        counts.incrementAndGet(s);
+        totalMicros.addAndGet(s, micros);
+        if (processedBytes > 0) {
+            bytes.addAndGet(s, processedBytes);
+        }
+        long max = maxMicros.get(s);
+        while (micros > max && !maxMicros.compareAndSet(s, max, micros)) {
+            max = maxMicros.get(s);
+        }
+    }
+
+    static int bucketFor(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        int bucket = (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+        return Math.min(bucket, BUCKETS - 1);
+    }
+
+    /**
+     * @return the smallest value that falls in the bucket
+     */
+    static long bucketFloor(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        return (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    public long getCount(Stage stage) {
+        return counts.get(stage.ordinal());
+    }
+
+    public long getTotalMicros(Stage stage) {
+        return totalMicros.get(stage.ordinal());
+    }
+
+    public long getMaxMicros(Stage stage) {
+        return maxMicros.get(stage.ordinal());
+    }
+
+    public long getBytes(Stage stage) {
+        return bytes.get(stage.ordinal());
+    }
+
+    /**
+     * @return the duration in microseconds that the given fraction of the
+     *         recorded durations don't exceed, or 0 if there are none
+     */
+    public long getPercentileMicros(Stage stage, double fraction) {
+        int s = stage.ordinal();
+        long count = counts.get(s);
+        return count == 0 ? 0 : percentile(s, count, fraction);
+    }
+
+    private long percentile(int stage, long count, double fraction) {
+        long rank = (long) Math.ceil(count * fraction);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(stage * BUCKETS + i);
+            if (seen >= rank) {
+                // Report the middle of the bucket, capped at the real maximum
+                long mid = (bucketFloor(i) + (i + 1 < BUCKETS ? bucketFloor(i + 1) : bucketFloor(i))) / 2;
+                return Math.min(mid, maxMicros.get(stage));
+            }
+        }
+        return maxMicros.get(stage);
+    }
+
+    public void reset() {
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.set(i, 0);
+        }
+        for (int s = 0; s < STAGES.length; s++) {
+            counts.set(s, 0);
+            totalMicros.set(s, 0);
+            maxMicros.set(s, 0);
+            bytes.set(s, 0);
+        }
+    }
+}
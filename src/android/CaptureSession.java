@@ -0,0 +1,243 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.mediacapture;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.net.Uri;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * State for one captureAudio/captureImage/captureVideo request: its
+ * callback, options and the results collected so far. Every request gets
+ * its own session, so metadata calls and the post-processing of other
+ * requests can't disturb it.
+ *
+ * The callback is kept alive until the final result has been sent and no
+ * thumbnails are outstanding.
+ */
+class CaptureSession {
+
+    // The session id is packed into the activity request code above the
+    // action. Request codes have to fit in 16 bits.
+    private static final int ACTION_BITS = 2;
+    private static final int MAX_ID = 0xffff >> ACTION_BITS;
+
+    private static final AtomicInteger nextId = new AtomicInteger();
+
+    final int id;
+    final int action;
+    final CallbackContext callbackContext;
+    final long limit; // the number of pics/vids/clips to take
+    final int duration; // optional max duration of video recording in seconds
+    final boolean streamResults; // send each result as soon as it is ready
+    final boolean hash; // add SHA-256 and CRC32 to each result
+    final boolean dedupe; // reuse stored images with identical content
+    final List<ImageVariants.Spec> variants; // downscaled copies of each image, or null
+    final FrameStrip.Spec frameStrip; // sprite sheet of each video's frames, or null
+    final boolean pipeline; // relaunch the camera before the last shot is ingested
+    final boolean direct; // have the camera write images straight into the MediaStore
+    final boolean normalizeOrientation; // store images upright instead of relying on EXIF orientation
+
+    volatile long baselineId = -1; // Newest image id before the first shot, -1 if unknown
+    volatile File photo; // Where the camera writes the current image
+    volatile Uri directUri; // Or the MediaStore entry it writes to, in direct mode
+
+    private final JSONArray results = new JSONArray();
+    private int resultCount;
+    private int pendingThumbnails;
+    private boolean finished;
+    private boolean failed;
+    private int shots;
+    private final List<Long> storedImages = new ArrayList<Long>(); // MediaStore ids we inserted
+
+    // Result tasks waiting for the one before them to finish
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<Runnable>();
+    private boolean running;
+
+    CaptureSession(int action, CallbackContext callbackContext, JSONObject options) {
+        this.id = nextId.incrementAndGet() & MAX_ID;
+        this.action = action;
+        this.callbackContext = callbackContext;
+        if (options != null) {
+            this.limit = options.optLong("limit", 1);
+            this.duration = options.optInt("duration", 0);
+            this.streamResults = options.optBoolean("streamResults", false);
+            this.hash = options.optBoolean("hash", false);
+            this.dedupe = options.optBoolean("dedupe", false);
+            this.variants = ImageVariants.parse(options.optJSONArray("variants"));
+            this.frameStrip = FrameStrip.parse(options.opt("frameStrip"));
+            this.pipeline = options.optBoolean("pipeline", false);
+            this.direct = options.optBoolean("direct", false);
+            this.normalizeOrientation = options.optBoolean("normalizeOrientation", false);
+        } else {
+            this.limit = 1;
+            this.duration = 0;
+            this.streamResults = false;
+            this.hash = false;
+            this.dedupe = false;
+            this.variants = null;
+            this.frameStrip = null;
+            this.pipeline = false;
+            this.direct = false;
+            this.normalizeOrientation = false;
+        }
+    }
+
+    int getRequestCode() {
+        return id << ACTION_BITS | action;
+    }
+
+    static int idFromRequestCode(int requestCode) {
+        return requestCode >>> ACTION_BITS;
+    }
+
+    /**
+     * Records a finished MediaFile. Streamed files are not kept, they have
+     * already been sent.
+     *
+     * @return the index of the file within this session, or -1 if the
+     *         session has failed and the file was dropped
+     */
+    synchronized int addResult(JSONObject mediaFile) {
+        if (failed) {
+            return -1;
+        }
+        if (!streamResults) {
+            results.put(mediaFile);
+        }
+        return resultCount++;
+    }
+
+    /**
+     * Counts a shot the capture activity has returned.
+     *
+     * @return the number of shots so far
+     */
+    synchronized int addShot() {
+        return ++shots;
+    }
+
+    /**
+     * Runs the session's result tasks on the executor one at a time, in
+     * the order they were queued, so results keep the order they were
+     * captured in even when they are ingested while the next shot is
+     * being taken.
+     */
+    void runInOrder(CaptureExecutor executor, Runnable task) {
+        synchronized (this) {
+            tasks.addLast(task);
+            if (running) {
+                return;
+            }
+            running = true;
+        }
+        runNext(executor);
+    }
+
+    private void runNext(final CaptureExecutor executor) {
+        final Runnable next;
+        synchronized (this) {
+            next = tasks.pollFirst();
+            if (next == null) {
+                running = false;
+                return;
+            }
+        }
+        boolean queued = executor.execute(CaptureExecutor.PRIORITY_RESULT, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    next.run();
+                } finally {
+                    runNext(executor);
+                }
+            }
+        });
+        if (!queued) {
+            // Shut down
+            synchronized (this) {
+                tasks.clear();
+                running = false;
+            }
+        }
+    }
+
+    synchronized void addStoredImage(long id) {
+        storedImages.add(id);
+    }
+
+    synchronized List<Long> getStoredImages() {
+        return new ArrayList<Long>(storedImages);
+    }
+
+    synchronized int getResultCount() {
+        return resultCount;
+    }
+
+    synchronized JSONArray getResults() {
+        return results;
+    }
+
+    synchronized boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Sends a result message.
+     *
+     * @param last true for the final result of the session
+     * @param thumbnails the number of thumbnail messages that will follow
+     */
+    synchronized void send(PluginResult result, boolean last, int thumbnails) {
+        if (failed) {
+            return;
+        }
+        pendingThumbnails += thumbnails;
+        finished |= last;
+        result.setKeepCallback(!finished || pendingThumbnails > 0);
+        callbackContext.sendPluginResult(result);
+    }
+
+    synchronized void sendThumbnail(PluginResult result) {
+        pendingThumbnails--;
+        if (failed) {
+            return;
+        }
+        result.setKeepCallback(!finished || pendingThumbnails > 0);
+        callbackContext.sendPluginResult(result);
+    }
+
+    synchronized void fail(JSONObject err) {
+        if (failed) {
+            return;
+        }
+        failed = true;
+        finished = true;
+        callbackContext.error(err);
+    }
+}
@@ -0,0 +1,269 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.mediacapture;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Build;
+
+import org.apache.cordova.LOG;
+
+import java.io.IOException;
+
+/**
+ * Decodes images down to a target size within a byte budget for the
+ * temporary bitmaps, whatever the size of the source. Only the output
+ * bitmap itself is outside the budget.
+ *
+ * The decoder samples by the largest power of two that keeps the target
+ * resolution. If the sampled image still doesn't fit the budget, or most
+ * of it would be cropped away, the needed region is decoded in horizontal
+ * strips with BitmapRegionDecoder and drawn into the output one strip at a
+ * time. Formats the region decoder can't read fall back to a coarser
+ * sample size instead.
+ *
+ * The output is turned upright according to the image's EXIF orientation,
+ * after it has been scaled down.
+ */
+public class Downscaler {
+    private static final String LOG_TAG = "Downscaler";
+
+    private static final int BYTES_PER_PIXEL = 4;
+
+    /**
+     * Returns the largest power of two sample size that still leaves the
+     * source at least as big as the requested size on both axes, the same
+     * way the decoder will apply it. No Android types, so it runs on a
+     * plain JVM.
+     */
+    static int sampleSize(int srcWidth, int srcHeight, int reqWidth, int reqHeight) {
+        int sample = 1;
+        if (reqWidth <= 0 || reqHeight <= 0) {
+            return sample;
+        }
+        while (srcWidth / (sample * 2) >= reqWidth && srcHeight / (sample * 2) >= reqHeight) {
+            sample *= 2;
+        }
+        return sample;
+    }
+
+    /**
+     * Doubles sample until width x height sampled by it fits in
+     * budgetBytes.
+     */
+    static int sampleSizeForBudget(int width, int height, int sample, long budgetBytes) {
+        while (sample < (1 << 30) && sampledBytes(width, height, sample) > budgetBytes) {
+            sample *= 2;
+        }
+        return sample;
+    }
+
+    static long sampledBytes(int width, int height, int sample) {
+        long w = (width + sample - 1) / sample;
+        long h = (height + sample - 1) / sample;
+        return w * h * BYTES_PER_PIXEL;
+    }
+
+    /**
+     * Scales the image to fill width x height and crops the middle, like
+     * ThumbnailUtils.extractThumbnail.
+     *
+     * @return the thumbnail, or null if the file can't be decoded
+     */
+    public static Bitmap thumbnail(String path, int width, int height, long budgetBytes, BitmapPool pool) {
+        BitmapFactory.Options bounds = decodeBounds(path);
+        int srcWidth = bounds.outWidth;
+        int srcHeight = bounds.outHeight;
+        if (srcWidth <= 0 || srcHeight <= 0) {
+            return null;
+        }
+        int orientation = ImageOrientation.read(path);
+        if (ImageOrientation.swapsAxes(orientation)) {
+            // Crop and scale in stored coordinates, where the thumbnail is
+            // on its side
+            int swap = width;
+            width = height;
+            height = swap;
+        }
+        // Largest centered region with the thumbnail's aspect ratio
+        Rect region;
+        if ((long) srcWidth * height > (long) srcHeight * width) {
+            int cropWidth = Math.max(1, (int) ((long) srcHeight * width / height));
+            int left = (srcWidth - cropWidth) / 2;
+            region = new Rect(left, 0, left + cropWidth, srcHeight);
+        } else {
+            int cropHeight = Math.max(1, (int) ((long) srcWidth * height / width));
+            int top = (srcHeight - cropHeight) / 2;
+            region = new Rect(0, top, srcWidth, top + cropHeight);
+        }
+        Bitmap bitmap = render(path, srcWidth, srcHeight, region, width, height, budgetBytes, pool);
+        return bitmap == null ? null : ImageOrientation.apply(bitmap, orientation, pool);
+    }
+
+    /**
+     * Scales the whole image so its longest edge is maxEdge, or leaves its
+     * size alone if it is already smaller. srcWidth and srcHeight are the
+     * stored size, as decodeBounds() reports it.
+     *
+     * @return the bitmap, or null if the file can't be decoded
+     */
+    public static Bitmap fit(String path, int srcWidth, int srcHeight, int maxEdge, long budgetBytes,
+            BitmapPool pool) {
+        int longest = Math.max(srcWidth, srcHeight);
+        double scale = longest <= maxEdge ? 1 : (double) maxEdge / longest;
+        int width = Math.max(1, (int) Math.round(srcWidth * scale));
+        int height = Math.max(1, (int) Math.round(srcHeight * scale));
+        Bitmap bitmap = render(path, srcWidth, srcHeight, new Rect(0, 0, srcWidth, srcHeight), width, height,
+                budgetBytes, pool);
+        return bitmap == null ? null : ImageOrientation.apply(bitmap, ImageOrientation.read(path), pool);
+    }
+
+    static BitmapFactory.Options decodeBounds(String path) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        return options;
+    }
+
+    private static Bitmap render(String path, int srcWidth, int srcHeight, Rect region, int width, int height,
+            long budgetBytes, BitmapPool pool) {
+        int regionWidth = region.right - region.left;
+        int regionHeight = region.bottom - region.top;
+        int sample = sampleSize(regionWidth, regionHeight, width, height);
+        boolean cropped = (long) regionWidth * regionHeight * 2 < (long) srcWidth * srcHeight;
+
+        if (!cropped && sampledBytes(srcWidth, srcHeight, sample) <= budgetBytes) {
+            return decodeWhole(path, srcWidth, srcHeight, sample, region, width, height, pool);
+        }
+        Bitmap bitmap = decodeStrips(path, region, sample, width, height, budgetBytes, pool);
+        if (bitmap != null) {
+            return bitmap;
+        }
+        // No region decoder for this format, so give up resolution instead
+        sample = sampleSizeForBudget(srcWidth, srcHeight, sample, budgetBytes);
+        return decodeWhole(path, srcWidth, srcHeight, sample, region, width, height, pool);
+    }
+
+    private static Bitmap decodeWhole(String path, int srcWidth, int srcHeight, int sample, Rect region,
+            int width, int height, BitmapPool pool) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.outWidth = srcWidth;
+        options.outHeight = srcHeight;
+        options.inSampleSize = sample;
+        Bitmap decoded = pool.decodeFile(path, options);
+        if (decoded == null) {
+            return null;
+        }
+        // Map the region onto the decoded bitmap, whatever sample the
+        // decoder actually applied
+        double scaleX = (double) decoded.getWidth() / srcWidth;
+        double scaleY = (double) decoded.getHeight() / srcHeight;
+        Rect src = new Rect((int) (region.left * scaleX), (int) (region.top * scaleY),
+                Math.max((int) (region.left * scaleX) + 1, (int) Math.round(region.right * scaleX)),
+                Math.max((int) (region.top * scaleY) + 1, (int) Math.round(region.bottom * scaleY)));
+        Bitmap output = pool.get(width, height, Bitmap.Config.ARGB_8888);
+        output.eraseColor(0);
+        new Canvas(output).drawBitmap(decoded, src, new Rect(0, 0, width, height),
+                new Paint(Paint.FILTER_BITMAP_FLAG));
+        pool.put(decoded);
+        return output;
+    }
+
+    /**
+     * @return the output, or null if the region decoder can't read the file
+     */
+    private static Bitmap decodeStrips(String path, Rect region, int sample, int width, int height,
+            long budgetBytes, BitmapPool pool) {
+        BitmapRegionDecoder decoder;
+        try {
+            decoder = BitmapRegionDecoder.newInstance(path, false);
+        } catch (IOException e) {
+            LOG.d(LOG_TAG, "No region decoder for " + path);
+            return null;
+        }
+        if (decoder == null) {
+            return null;
+        }
+        int regionWidth = region.right - region.left;
+        int regionHeight = region.bottom - region.top;
+        // At least a few sampled rows per strip, even if that means sampling
+        // more coarsely
+        while (sampledBytes(regionWidth, 8 * sample, sample) > budgetBytes && sample < (1 << 30)) {
+            sample *= 2;
+        }
+        long rowBytes = sampledBytes(regionWidth, sample, sample);
+        int stripRows = (int) Math.min(regionHeight, budgetBytes / rowBytes * sample);
+        stripRows = Math.max(sample, stripRows - stripRows % sample);
+
+        Bitmap output = pool.get(width, height, Bitmap.Config.ARGB_8888);
+        output.eraseColor(0);
+        Canvas canvas = new Canvas(output);
+        Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sample;
+        try {
+            for (int top = region.top; top < region.bottom; top += stripRows) {
+                int bottom = Math.min(region.bottom, top + stripRows);
+                Rect strip = new Rect(region.left, top, region.right, bottom);
+                Bitmap tile = decodeTile(decoder, strip, sample, options, pool);
+                if (tile == null) {
+                    pool.put(output);
+                    return null;
+                }
+                // Consecutive strips share their edge row in the output,
+                // so there are no seams
+                int dstTop = (int) ((long) (top - region.top) * height / regionHeight);
+                int dstBottom = (int) ((long) (bottom - region.top) * height / regionHeight);
+                if (dstBottom > dstTop) {
+                    canvas.drawBitmap(tile, new Rect(0, 0, tile.getWidth(), tile.getHeight()),
+                            new Rect(0, dstTop, width, dstBottom), paint);
+                }
+                pool.put(tile);
+            }
+        } finally {
+            decoder.recycle();
+        }
+        return output;
+    }
+
+    private static Bitmap decodeTile(BitmapRegionDecoder decoder, Rect strip, int sample,
+            BitmapFactory.Options options, BitmapPool pool) {
+        options.inBitmap = null;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            int tileWidth = (strip.right - strip.left + sample - 1) / sample;
+            int tileHeight = (strip.bottom - strip.top + sample - 1) / sample;
+            options.inBitmap = pool.take(tileWidth, tileHeight, Bitmap.Config.ARGB_8888);
+        }
+        if (options.inBitmap == null) {
+            return decoder.decodeRegion(strip, options);
+        }
+        Bitmap reused = options.inBitmap;
+        try {
+            return decoder.decodeRegion(strip, options);
+        } catch (IllegalArgumentException e) {
+            options.inBitmap = null;
+            pool.put(reused);
+            return decoder.decodeRegion(strip, options);
+        }
+    }
+}
@@ -23,11 +23,18 @@ import android.webkit.MimeTypeMap;
 
 import org.apache.cordova.CordovaInterface;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Locale;
 
 // TODO: Replace with CordovaResourceApi.getMimeType() post 3.1.
 public class FileHelper {
     public static String getMimeTypeForExtension(String path) {
+        // The common media types come from our own table without allocating
+        String mimeType = MimeTypeResolver.forExtension(path);
+        if (mimeType != null) {
+            return mimeType;
+        }
         String extension = path;
         int lastDot = extension.lastIndexOf('.');
         if (lastDot != -1) {
@@ -35,9 +42,6 @@ public class FileHelper {
         }
         // Convert the URI string to lower case to ensure compatibility with MimeTypeMap (see CB-2185).
         extension = extension.toLowerCase(Locale.getDefault());
-        if (extension.equals("3ga")) {
-            return "audio/3gpp";
-        }
         return MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension);
     }
     
@@ -53,8 +57,28 @@ public class FileHelper {
             mimeType = cordova.getActivity().getContentResolver().getType(uri);
         } else {
             mimeType = getMimeTypeForExtension(uri.getPath());
+            if (mimeType == null && uri.getPath() != null) {
+                mimeType = sniff(new File(uri.getPath()));
+            }
         }
 
         return mimeType;
     }
+
+    /**
+     * Identifies a local file from its first bytes.
+     *
+     * @return the mime type, or null if the file can't be read or isn't
+     *         recognised
+     */
+    public static String sniff(File file) {
+        try {
+            return MimeTypeResolver.sniff(file);
+        } catch (IOException e) {
+            return null;
+        } catch (RuntimeException e) {
+            // A malformed file, the caller falls back on the extension or URI
+            return null;
+        }
+    }
 }
@@ -0,0 +1,252 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.mediacapture;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.media.MediaMetadataRetriever;
+import android.os.Build;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Builds a sprite sheet of evenly spaced video frames for scrubbing
+ * previews. All frames come from one MediaMetadataRetriever session and
+ * are taken from the nearest sync frame, which avoids decoding from the
+ * previous key frame each time. From API 27 the retriever scales each
+ * frame to the cell size as it decodes, so memory stays at about one
+ * cell plus the sheet. Older versions decode every frame at full size, so
+ * there each frame is freed as soon as it is drawn and fewer frames are
+ * taken. Cells are shrunk as needed to keep the sheet within a fixed
+ * byte budget.
+ */
+public class FrameStrip {
+
+    private static final int MAX_FRAMES = 100;
+    // Before API 27 each frame is a full size decode
+    private static final int MAX_LEGACY_FRAMES = 20;
+    private static final long MAX_SHEET_BYTES = 8 * 1024 * 1024;
+    private static final int MAX_FRAME_EDGE = 512;
+    private static final int DEFAULT_FRAMES = 10;
+    private static final int DEFAULT_FRAME_WIDTH = 160;
+    private static final int DEFAULT_QUALITY = 80;
+
+    /**
+     * The frameStrip option: how many frames, the size of each cell, how
+     * many cells per row and the JPEG quality. A height of 0 keeps the
+     * video's aspect ratio.
+     */
+    public static class Spec {
+        public final int count;
+        public final int frameWidth;
+        public final int frameHeight;
+        public final int columns;
+        public final int quality;
+
+        Spec(int count, int frameWidth, int frameHeight, int columns, int quality) {
+            this.count = count;
+            this.frameWidth = frameWidth;
+            this.frameHeight = frameHeight;
+            this.columns = columns;
+            this.quality = quality;
+        }
+
+        @Override
+        public String toString() {
+            return "strip:" + count + ":" + frameWidth + "x" + frameHeight + ":" + columns + ":" + quality;
+        }
+    }
+
+    /**
+     * Reads the frameStrip option, either true for the defaults or an
+     * object of {count, frameWidth, frameHeight, columns, quality}.
+     *
+     * @return the spec, or null if no strip was asked for
+     */
+    public static Spec parse(Object option) {
+        JSONObject strip;
+        if (Boolean.TRUE.equals(option)) {
+            strip = new JSONObject();
+        } else if (option instanceof JSONObject) {
+            strip = (JSONObject) option;
+        } else {
+            return null;
+        }
+        int count = Math.max(1, Math.min(MAX_FRAMES, strip.optInt("count", DEFAULT_FRAMES)));
+        int width = Math.max(1, Math.min(MAX_FRAME_EDGE, strip.optInt("frameWidth", DEFAULT_FRAME_WIDTH)));
+        int height = Math.max(0, Math.min(MAX_FRAME_EDGE, strip.optInt("frameHeight", 0)));
+        int columns = Math.max(1, Math.min(count, strip.optInt("columns", count)));
+        int quality = Math.max(1, Math.min(100, strip.optInt("quality", DEFAULT_QUALITY)));
+        return new Spec(count, width, height, columns, quality);
+    }
+
+    /**
+     * Extracts the frames and writes the sheet to output as a JPEG.
+     *
+     * @return {fullPath, width, height, columns, rows, frameWidth,
+     *         frameHeight, frames}, where frames holds {timeMs, x, y} for
+     *         each cell in time order
+     */
+    public static JSONObject generate(String videoPath, Spec spec, File output, BitmapPool pool)
+            throws IOException, JSONException {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        Bitmap sheet = null;
+        try {
+            try {
+                retriever.setDataSource(videoPath);
+            } catch (RuntimeException e) {
+                throw new IOException("Unable to open " + videoPath);
+            }
+            long durationMs = parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION));
+            int videoWidth = (int) parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH));
+            int videoHeight = (int) parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT));
+            long rotation = parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_ROTATION));
+            if (rotation == 90 || rotation == 270) {
+                int swap = videoWidth;
+                videoWidth = videoHeight;
+                videoHeight = swap;
+            }
+            if (durationMs <= 0 || videoWidth <= 0 || videoHeight <= 0) {
+                throw new IOException("No video track in " + videoPath);
+            }
+
+            boolean scaledFrames = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1;
+            int count = scaledFrames ? spec.count : Math.min(spec.count, MAX_LEGACY_FRAMES);
+            int columns = Math.min(spec.columns, count);
+            int rows = (count + columns - 1) / columns;
+            int frameWidth = spec.frameWidth;
+            int frameHeight = spec.frameHeight > 0 ? spec.frameHeight
+                    : Math.max(1, Math.min(MAX_FRAME_EDGE, Math.round((float) frameWidth * videoHeight / videoWidth)));
+            long sheetBytes = (long) rows * columns * frameWidth * frameHeight * 4;
+            if (sheetBytes > MAX_SHEET_BYTES) {
+                double shrink = Math.sqrt((double) MAX_SHEET_BYTES / sheetBytes);
+                frameWidth = Math.max(1, (int) (frameWidth * shrink));
+                frameHeight = Math.max(1, (int) (frameHeight * shrink));
+            }
+            // The frame size that covers a cell, so cropping never upscales
+            float scale = Math.max((float) frameWidth / videoWidth, (float) frameHeight / videoHeight);
+            int coverWidth = Math.max(frameWidth, (int) Math.ceil(videoWidth * scale));
+            int coverHeight = Math.max(frameHeight, (int) Math.ceil(videoHeight * scale));
+            sheet = pool.get(columns * frameWidth, rows * frameHeight, Bitmap.Config.ARGB_8888);
+            sheet.eraseColor(0xff000000);
+            Canvas canvas = new Canvas(sheet);
+            Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+            JSONArray frames = new JSONArray();
+            for (int i = 0; i < count; i++) {
+                // The middle of each of count equal slices
+                long timeUs = durationMs * 1000 * (2 * i + 1) / (2 * count);
+                int x = (i % columns) * frameWidth;
+                int y = (i / columns) * frameHeight;
+                Bitmap frame = frameAt(retriever, timeUs, coverWidth, coverHeight);
+                if (frame != null) {
+                    canvas.drawBitmap(frame, centerCrop(frame.getWidth(), frame.getHeight(), frameWidth, frameHeight),
+                            new Rect(x, y, x + frameWidth, y + frameHeight), paint);
+                    if (scaledFrames) {
+                        pool.put(frame);
+                    } else {
+                        // Full size, so no use to the pool
+                        frame.recycle();
+                    }
+                }
+                JSONObject cell = new JSONObject();
+                cell.put("timeMs", timeUs / 1000);
+                cell.put("x", x);
+                cell.put("y", y);
+                frames.put(cell);
+            }
+
+            write(sheet, output, spec.quality);
+            JSONObject strip = new JSONObject();
+            strip.put("fullPath", output.toURI().toString());
+            strip.put("width", sheet.getWidth());
+            strip.put("height", sheet.getHeight());
+            strip.put("columns", columns);
+            strip.put("rows", rows);
+            strip.put("frameWidth", frameWidth);
+            strip.put("frameHeight", frameHeight);
+            strip.put("frames", frames);
+            return strip;
+        } finally {
+            retriever.release();
+            if (sheet != null) {
+                pool.put(sheet);
+            }
+        }
+    }
+
+    private static Bitmap frameAt(MediaMetadataRetriever retriever, long timeUs, int width, int height) {
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1) {
+                return retriever.getScaledFrameAtTime(timeUs, MediaMetadataRetriever.OPTION_CLOSEST_SYNC,
+                        width, height);
+            }
+            return retriever.getFrameAtTime(timeUs, MediaMetadataRetriever.OPTION_CLOSEST_SYNC);
+        } catch (RuntimeException e) {
+            // Leave the cell blank
+            return null;
+        }
+    }
+
+    /**
+     * @return the middle region of a srcWidth x srcHeight frame with the
+     *         cell's aspect ratio
+     */
+    private static Rect centerCrop(int srcWidth, int srcHeight, int width, int height) {
+        if ((long) srcWidth * height > (long) srcHeight * width) {
+            int cropWidth = Math.max(1, (int) ((long) srcHeight * width / height));
+            int left = (srcWidth - cropWidth) / 2;
+            return new Rect(left, 0, left + cropWidth, srcHeight);
+        }
+        int cropHeight = Math.max(1, (int) ((long) srcWidth * height / width));
+        int top = (srcHeight - cropHeight) / 2;
+        return new Rect(0, top, srcWidth, top + cropHeight);
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static void write(Bitmap bitmap, File file, int quality) throws IOException {
+        file.getParentFile().mkdirs();
+        FileOutputStream os = new FileOutputStream(file);
+        try {
+            if (!bitmap.compress(Bitmap.CompressFormat.JPEG, quality, os)) {
+                throw new IOException("Unable to encode " + file);
+            }
+        } finally {
+            os.close();
+        }
+    }
+}
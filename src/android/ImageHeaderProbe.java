@@ -0,0 +1,322 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.mediacapture;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads image dimensions, bit depth and EXIF orientation straight from the
+ * file header of JPEG, PNG, GIF, WebP and HEIF images. Only the header
+ * segments are read, a few KB at most, and no decoder is involved.
+ *
+ * This class has no Android dependencies.
+ */
+public class ImageHeaderProbe {
+
+    // First read; enough for every format except JPEG files with large APPn segments
+    private static final int HEAD_SIZE = 4096;
+    // HEIF keeps its item properties in the meta box near the start of the file
+    private static final int HEIF_META_LIMIT = 16 * 1024;
+    // Only IFD0 is needed out of the EXIF segment
+    private static final int EXIF_READ_LIMIT = 4096;
+    private static final int MAX_JPEG_SEGMENTS = 64;
+
+    /**
+     * What was found in the header. orientation uses the EXIF values 1-8,
+     * 1 meaning the pixels are stored upright.
+     */
+    public static class Info {
+        public String mimeType;
+        public int width;
+        public int height;
+        public int bitDepth;
+        public int orientation = 1;
+    }
+
+    /**
+     * @return the header info, or null if the file is not one of the
+     *         supported formats or its header is unreadable
+     */
+    public static Info probe(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            return probe(in.getChannel());
+        } finally {
+            in.close();
+        }
+    }
+
+    public static Info probe(FileChannel channel) throws IOException {
+        ByteBuffer head = read(channel, 0, HEAD_SIZE);
+        try {
+            if (head.remaining() < 12) {
+                return null;
+            }
+            int b0 = head.get(0) & 0xff;
+            int b1 = head.get(1) & 0xff;
+            if (b0 == 0xff && b1 == 0xd8) {
+                return probeJpeg(channel);
+            }
+            if (head.getInt(0) == 0x89504e47 && head.getInt(4) == 0x0d0a1a0a) {
+                return probePng(head);
+            }
+            if (head.getInt(0) == 0x47494638) { // GIF8
+                return probeGif(head);
+            }
+            if (head.getInt(0) == 0x52494646 && head.getInt(8) == 0x57454250) { // RIFF....WEBP
+                return probeWebp(head);
+            }
+            if (head.getInt(4) == 0x66747970 && isHeifBrand(head.getInt(8))) { // ftyp
+                return probeHeif(read(channel, 0, HEIF_META_LIMIT));
+            }
+        } catch (BufferUnderflowException e) {
+            // Truncated header
+        } catch (IndexOutOfBoundsException e) {
+            // Truncated header
+        }
+        return null;
+    }
+
+    private static Info probeJpeg(FileChannel channel) throws IOException {
+        Info info = new Info();
+        info.mimeType = "image/jpeg";
+        long position = 2;
+        ByteBuffer marker = ByteBuffer.allocate(4);
+        for (int i = 0; i < MAX_JPEG_SEGMENTS; i++) {
+            marker.clear();
+            if (channel.read(marker, position) < 4) {
+                return null;
+            }
+            marker.flip();
+            if ((marker.get(0) & 0xff) != 0xff) {
+                return null;
+            }
+            int type = marker.get(1) & 0xff;
+            if (type == 0xff) {
+                // Fill byte
+                position++;
+                continue;
+            }
+            int length = marker.getShort(2) & 0xffff;
+            if (type == 0xd9 || type == 0xda || length < 2) {
+                // EOI or start of scan before any frame header
+                return null;
+            }
+            if (type == 0xe1 && info.orientation == 1) {
+                ByteBuffer app1 = read(channel, position + 4, Math.min(length - 2, EXIF_READ_LIMIT));
+                info.orientation = readExifOrientation(app1);
+            } else if (isStartOfFrame(type)) {
+                ByteBuffer sof = read(channel, position + 4, 5);
+                info.bitDepth = sof.get(0) & 0xff;
+                info.height = sof.getShort(1) & 0xffff;
+                info.width = sof.getShort(3) & 0xffff;
+                return info;
+            }
+            position += 2 + length;
+        }
+        return null;
+    }
+
+    private static boolean isStartOfFrame(int type) {
+        return type >= 0xc0 && type <= 0xcf && type != 0xc4 && type != 0xc8 && type != 0xcc;
+    }
+
+    /**
+     * Reads the orientation tag from IFD0 of an APP1 Exif segment body.
+     */
+    static int readExifOrientation(ByteBuffer app1) {
+        try {
+            // "Exif\0\0"
+            if (app1.remaining() < 14 || app1.getInt(0) != 0x45786966 || app1.getShort(4) != 0) {
+                return 1;
+            }
+            ByteBuffer tiff = app1.duplicate();
+            tiff.position(6);
+            tiff = tiff.slice();
+            short byteOrder = tiff.getShort(0);
+            if (byteOrder == 0x4949) {
+                tiff.order(ByteOrder.LITTLE_ENDIAN);
+            } else if (byteOrder != 0x4d4d) {
+                return 1;
+            }
+            int ifd = tiff.getInt(4);
+            int entries = tiff.getShort(ifd) & 0xffff;
+            for (int i = 0; i < entries; i++) {
+                int entry = ifd + 2 + i * 12;
+                if ((tiff.getShort(entry) & 0xffff) == 0x0112) {
+                    int value = tiff.getShort(entry + 8) & 0xffff;
+                    return value >= 1 && value <= 8 ? value : 1;
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            // IFD0 lies beyond what we read
+        }
+        return 1;
+    }
+
+    private static Info probePng(ByteBuffer head) {
+        // IHDR is always the first chunk
+        if (head.getInt(12) != 0x49484452) {
+            return null;
+        }
+        Info info = new Info();
+        info.mimeType = "image/png";
+        info.width = head.getInt(16);
+        info.height = head.getInt(20);
+        info.bitDepth = head.get(24) & 0xff;
+        return info;
+    }
+
+    private static Info probeGif(ByteBuffer head) {
+        head.order(ByteOrder.LITTLE_ENDIAN);
+        Info info = new Info();
+        info.mimeType = "image/gif";
+        info.width = head.getShort(6) & 0xffff;
+        info.height = head.getShort(8) & 0xffff;
+        info.bitDepth = ((head.get(10) >> 4) & 0x07) + 1;
+        return info;
+    }
+
+    private static Info probeWebp(ByteBuffer head) {
+        ByteBuffer le = head.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        Info info = new Info();
+        info.mimeType = "image/webp";
+        info.bitDepth = 8;
+        int chunk = head.getInt(12);
+        if (chunk == 0x56503820) { // "VP8 " lossy: 3 byte frame tag, 3 byte start code
+            info.width = le.getShort(26) & 0x3fff;
+            info.height = le.getShort(28) & 0x3fff;
+        } else if (chunk == 0x5650384c) { // "VP8L" lossless: signature byte, then 14 bit fields
+            int bits = le.getInt(21);
+            info.width = (bits & 0x3fff) + 1;
+            info.height = ((bits >> 14) & 0x3fff) + 1;
+        } else if (chunk == 0x56503858) { // "VP8X" extended: 24 bit canvas size
+            info.width = read24(le, 24) + 1;
+            info.height = read24(le, 27) + 1;
+        } else {
+            return null;
+        }
+        return info;
+    }
+
+    private static int read24(ByteBuffer le, int offset) {
+        return (le.get(offset) & 0xff) | (le.get(offset + 1) & 0xff) << 8 | (le.get(offset + 2) & 0xff) << 16;
+    }
+
+    private static boolean isHeifBrand(int brand) {
+        return brand == 0x68656963 // heic
+                || brand == 0x68656978 // heix
+                || brand == 0x6d696631 // mif1
+                || brand == 0x6d736631 // msf1
+                || brand == 0x61766966; // avif
+    }
+
+    private static Info probeHeif(ByteBuffer file) {
+        Info info = new Info();
+        int brand = file.getInt(8);
+        info.mimeType = brand == 0x61766966 ? "image/avif" : "image/heif";
+        // meta is a top level full box holding iprp/ipco, where ispe lives
+        ByteBuffer meta = findBox(file, 0, file.limit(), 0x6d657461);
+        if (meta == null) {
+            return null;
+        }
+        ByteBuffer iprp = findBox(meta, meta.position() + 4, meta.limit(), 0x69707270);
+        ByteBuffer ipco = iprp == null ? null : findBox(iprp, iprp.position(), iprp.limit(), 0x6970636f);
+        if (ipco == null) {
+            return null;
+        }
+        // A grid image lists one ispe per tile plus one for the canvas; the
+        // canvas is the largest.
+        int position = ipco.position();
+        while (position + 8 <= ipco.limit()) {
+            int size = ipco.getInt(position);
+            int type = ipco.getInt(position + 4);
+            if (size < 8 || position + size > ipco.limit()) {
+                break;
+            }
+            if (type == 0x69737065 && size >= 20) { // ispe
+                int width = ipco.getInt(position + 12);
+                int height = ipco.getInt(position + 16);
+                if ((long) width * height > (long) info.width * info.height) {
+                    info.width = width;
+                    info.height = height;
+                }
+            } else if (type == 0x69726f74 && size >= 9) { // irot, anticlockwise quarter turns
+                switch (ipco.get(position + 8) & 0x03) {
+                    case 1: info.orientation = 8; break;
+                    case 2: info.orientation = 3; break;
+                    case 3: info.orientation = 6; break;
+                    default: info.orientation = 1; break;
+                }
+            } else if (type == 0x70697869 && size >= 14) { // pixi
+                info.bitDepth = ipco.get(position + 13) & 0xff;
+            }
+            position += size;
+        }
+        if (info.width == 0 || info.height == 0) {
+            return null;
+        }
+        if (info.bitDepth == 0) {
+            info.bitDepth = 8;
+        }
+        return info;
+    }
+
+    /**
+     * Looks for a child box between start and end.
+     *
+     * @return a buffer whose position and limit cover the box body, or null
+     */
+    private static ByteBuffer findBox(ByteBuffer buffer, int start, int end, int wanted) {
+        int position = start;
+        while (position + 8 <= end) {
+            long size = buffer.getInt(position) & 0xffffffffL;
+            int type = buffer.getInt(position + 4);
+            if (size < 8) {
+                return null;
+            }
+            if (type == wanted) {
+                ByteBuffer box = buffer.duplicate();
+                box.limit((int) Math.min(end, position + size));
+                box.position(position + 8);
+                return box;
+            }
+            position += size;
+        }
+        return null;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
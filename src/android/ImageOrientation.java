@@ -0,0 +1,274 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.mediacapture;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.media.ExifInterface;
+
+import org.apache.cordova.LOG;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Applies the EXIF orientation of JPEG images, which BitmapFactory
+ * ignores. The orientation comes from ImageHeaderProbe, which reads it out
+ * of the APP1 segment without decoding anything. Thumbnails and variants
+ * are turned upright after they are scaled down, so only the small bitmap
+ * is transformed.
+ */
+public class ImageOrientation {
+    private static final String LOG_TAG = "ImageOrientation";
+
+    private static final int NORMALIZE_QUALITY = 95;
+
+    // At least this many rows per strip when normalize() decodes the source
+    private static final int MIN_STRIP_ROWS = 16;
+    private static final long MAX_STRIP_BYTES = 16 * 1024 * 1024;
+
+    // Not carried over by normalize(): they describe the old pixel layout,
+    // the embedded thumbnail or the orientation itself
+    private static final Set<String> LAYOUT_TAGS = new HashSet<String>(Arrays.asList(
+            "Orientation", "ImageWidth", "ImageLength", "PixelXDimension", "PixelYDimension",
+            "ThumbnailImageWidth", "ThumbnailImageLength", "ThumbnailOrientation",
+            "JPEGInterchangeFormat", "JPEGInterchangeFormatLength", "Compression",
+            "StripOffsets", "StripByteCounts", "RowsPerStrip"));
+    private static List<String> copiedTags;
+
+    /**
+     * @return the EXIF orientation of a JPEG, 1-8, or 1 for anything else
+     *         or if the header can't be read
+     */
+    public static int read(String path) {
+        try {
+            ImageHeaderProbe.Info info = ImageHeaderProbe.probe(new File(path));
+            if (info != null && "image/jpeg".equals(info.mimeType)) {
+                return info.orientation;
+            }
+        } catch (IOException e) {
+            LOG.d(LOG_TAG, "Unable to read orientation of " + path);
+        }
+        return 1;
+    }
+
+    /**
+     * @return true if the orientation turns the image on its side, so the
+     *         upright width is the stored height
+     */
+    public static boolean swapsAxes(int orientation) {
+        return orientation >= 5 && orientation <= 8;
+    }
+
+    /**
+     * Draws source upright into a pooled bitmap and hands source back to
+     * the pool.
+     *
+     * @return the upright bitmap, or source itself for orientation 1
+     */
+    public static Bitmap apply(Bitmap source, int orientation, BitmapPool pool) {
+        if (orientation <= 1 || orientation > 8) {
+            return source;
+        }
+        int width = source.getWidth();
+        int height = source.getHeight();
+        boolean swap = swapsAxes(orientation);
+        Bitmap.Config config = source.getConfig() != null ? source.getConfig() : Bitmap.Config.ARGB_8888;
+        Bitmap target = pool.get(swap ? height : width, swap ? width : height, config);
+        target.eraseColor(0);
+        new Canvas(target).drawBitmap(source, matrix(orientation, width, height), new Paint(Paint.FILTER_BITMAP_FLAG));
+        pool.put(source);
+        return target;
+    }
+
+    /**
+     * @return the transform that maps a stored width x height image onto
+     *         its upright bitmap
+     */
+    static Matrix matrix(int orientation, int width, int height) {
+        Matrix matrix = new Matrix();
+        switch (orientation) {
+            case 2: // mirrored
+                matrix.setScale(-1, 1);
+                matrix.postTranslate(width, 0);
+                break;
+            case 3: // upside down
+                matrix.setRotate(180);
+                matrix.postTranslate(width, height);
+                break;
+            case 4: // upside down, mirrored
+                matrix.setScale(1, -1);
+                matrix.postTranslate(0, height);
+                break;
+            case 5: // transposed
+                matrix.setRotate(90);
+                matrix.postScale(-1, 1);
+                break;
+            case 6: // turned left, so rotate clockwise
+                matrix.setRotate(90);
+                matrix.postTranslate(height, 0);
+                break;
+            case 7: // transversed
+                matrix.setRotate(-90);
+                matrix.postScale(-1, 1);
+                matrix.postTranslate(height, width);
+                break;
+            case 8: // turned right, so rotate counter-clockwise
+                matrix.setRotate(-90);
+                matrix.postTranslate(0, width);
+                break;
+            default:
+                break;
+        }
+        return matrix;
+    }
+
+    /**
+     * Rewrites a JPEG so its pixels are stored upright and its orientation
+     * tag is 1, keeping every other EXIF tag except those describing the
+     * old layout. The platform has no lossless JPEG transform, so this
+     * re-encodes at high quality. The upright bitmap is built whole, since
+     * the encoder needs it, but the source is decoded into it a strip at a
+     * time. If that doesn't fit in budgetBytes the file is left as it is,
+     * tag included.
+     *
+     * @return true if the file was rewritten
+     */
+    public static boolean normalize(File jpeg, int orientation, long budgetBytes, BitmapPool pool)
+            throws IOException {
+        if (orientation <= 1 || orientation > 8) {
+            return false;
+        }
+        String path = jpeg.getPath();
+        BitmapFactory.Options bounds = Downscaler.decodeBounds(path);
+        int width = bounds.outWidth;
+        int height = bounds.outHeight;
+        if (width <= 0 || height <= 0) {
+            throw new IOException("Unable to decode " + jpeg);
+        }
+        long rowBytes = (long) width * 4;
+        long stripBytes = Math.min(budgetBytes - rowBytes * height, MAX_STRIP_BYTES);
+        if (stripBytes < rowBytes * MIN_STRIP_ROWS) {
+            LOG.d(LOG_TAG, "Too large to normalize in memory: " + path);
+            return false;
+        }
+        BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(path, false);
+        if (decoder == null) {
+            throw new IOException("Unable to decode " + jpeg);
+        }
+
+        ExifInterface original = new ExifInterface(path);
+        List<String> tags = copiedTags();
+        String[] values = new String[tags.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = original.getAttribute(tags.get(i));
+        }
+
+        boolean swap = swapsAxes(orientation);
+        Bitmap upright = null;
+        File tmp = new File(jpeg.getParentFile(), jpeg.getName() + ".upright");
+        try {
+            upright = pool.get(swap ? height : width, swap ? width : height, Bitmap.Config.ARGB_8888);
+            upright.eraseColor(0);
+            Canvas canvas = new Canvas(upright);
+            int stripRows = (int) Math.min(height, stripBytes / rowBytes);
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            for (int top = 0; top < height; top += stripRows) {
+                Bitmap strip = decoder.decodeRegion(new Rect(0, top, width, Math.min(height, top + stripRows)),
+                        options);
+                if (strip == null) {
+                    throw new IOException("Unable to decode " + jpeg);
+                }
+                // Quarter turns and flips map pixels one to one, so no filtering
+                Matrix matrix = matrix(orientation, width, height);
+                matrix.preTranslate(0, top);
+                canvas.drawBitmap(strip, matrix, null);
+                strip.recycle();
+            }
+
+            FileOutputStream os = new FileOutputStream(tmp);
+            try {
+                if (!upright.compress(Bitmap.CompressFormat.JPEG, NORMALIZE_QUALITY, os)) {
+                    throw new IOException("Unable to encode " + tmp);
+                }
+            } finally {
+                os.close();
+            }
+            pool.put(upright);
+            upright = null;
+
+            ExifInterface exif = new ExifInterface(tmp.getPath());
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != null) {
+                    exif.setAttribute(tags.get(i), values[i]);
+                }
+            }
+            exif.setAttribute(ExifInterface.TAG_ORIENTATION, Integer.toString(ExifInterface.ORIENTATION_NORMAL));
+            exif.saveAttributes();
+
+            if (!tmp.renameTo(jpeg)) {
+                throw new IOException("Unable to replace " + jpeg);
+            }
+        } finally {
+            decoder.recycle();
+            if (upright != null) {
+                pool.put(upright);
+            }
+            tmp.delete();
+        }
+        return true;
+    }
+
+    /**
+     * @return every tag this version of ExifInterface knows, from its TAG_
+     *         constants, except the layout tags
+     */
+    private static synchronized List<String> copiedTags() {
+        if (copiedTags == null) {
+            Set<String> tags = new LinkedHashSet<String>();
+            for (Field field : ExifInterface.class.getFields()) {
+                if (field.getName().startsWith("TAG_") && field.getType() == String.class
+                        && Modifier.isStatic(field.getModifiers())) {
+                    try {
+                        tags.add((String) field.get(null));
+                    } catch (IllegalAccessException e) {
+                        // Public, so this will never happen
+                    }
+                }
+            }
+            tags.removeAll(LAYOUT_TAGS);
+            copiedTags = new ArrayList<String>(tags);
+        }
+        return copiedTags;
+    }
+}
@@ -0,0 +1,216 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.mediacapture;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Produces downscaled copies of a captured image, plus its thumbnail, from
+ * a single decode. The image is decoded once by the Downscaler, straight
+ * to the largest size needed, and every smaller output is then scaled
+ * from the previous one rather than from the full image. Intermediate
+ * bitmaps come from and go back to a BitmapPool. The decode is turned
+ * upright according to the EXIF orientation, so every output is too.
+ */
+public class ImageVariants {
+
+    private static final int DEFAULT_QUALITY = 85;
+
+    /**
+     * One requested output: the longest edge in pixels and the JPEG quality.
+     */
+    public static class Spec {
+        public final int maxEdge;
+        public final int quality;
+
+        Spec(int maxEdge, int quality) {
+            this.maxEdge = maxEdge;
+            this.quality = quality;
+        }
+    }
+
+    public static class Output {
+        public final Spec spec;
+        public final File file;
+        public final int width;
+        public final int height;
+
+        Output(Spec spec, File file, int width, int height) {
+            this.spec = spec;
+            this.file = file;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    public static class Result {
+        /** In the order the specs were given */
+        public final List<Output> outputs;
+        /** Taken from the smallest intermediate that was still big enough */
+        public final Bitmap thumbnail;
+
+        Result(List<Output> outputs, Bitmap thumbnail) {
+            this.outputs = outputs;
+            this.thumbnail = thumbnail;
+        }
+    }
+
+    /**
+     * Reads the variants capture option, an array of {maxEdge, quality}.
+     *
+     * @return the specs, or null if the option is missing or empty
+     */
+    public static List<Spec> parse(JSONArray variants) {
+        if (variants == null) {
+            return null;
+        }
+        List<Spec> specs = new ArrayList<Spec>();
+        for (int i = 0; i < variants.length(); i++) {
+            JSONObject variant = variants.optJSONObject(i);
+            if (variant == null) {
+                continue;
+            }
+            int maxEdge = variant.optInt("maxEdge", 0);
+            int quality = Math.max(1, Math.min(100, variant.optInt("quality", DEFAULT_QUALITY)));
+            if (maxEdge > 0) {
+                specs.add(new Spec(maxEdge, quality));
+            }
+        }
+        return specs.isEmpty() ? null : specs;
+    }
+
+    /**
+     * Writes every variant of source into directory, named
+     * baseName-maxEdge.jpg. Variants are never larger than the source.
+     *
+     * @param thumbWidth width of the thumbnail, or 0 for none
+     * @param thumbHeight height of the thumbnail
+     * @param budgetBytes the temporary memory the decode may use
+     */
+    public static Result generate(File source, List<Spec> specs, File directory, String baseName,
+            int thumbWidth, int thumbHeight, long budgetBytes, BitmapPool pool) throws IOException {
+        BitmapFactory.Options options = Downscaler.decodeBounds(source.getPath());
+        int width = options.outWidth;
+        int height = options.outHeight;
+        if (width <= 0 || height <= 0) {
+            throw new IOException("Unable to decode " + source);
+        }
+        int longest = Math.max(width, height);
+        int shortest = Math.min(width, height);
+
+        // Largest edge anything needs: the biggest variant, or whatever
+        // keeps the short edge as long as the thumbnail
+        int needed = 0;
+        for (Spec spec : specs) {
+            needed = Math.max(needed, spec.maxEdge);
+        }
+        if (thumbWidth > 0) {
+            int thumbEdge = Math.max(thumbWidth, thumbHeight);
+            needed = Math.max(needed, (int) Math.ceil((double) thumbEdge * longest / shortest));
+        }
+        needed = Math.min(needed, longest);
+
+        Bitmap current = Downscaler.fit(source.getPath(), width, height, needed, budgetBytes, pool);
+        if (current == null) {
+            throw new IOException("Unable to decode " + source);
+        }
+
+        // Largest first, so each step scales from the one before
+        List<Integer> order = new ArrayList<Integer>();
+        for (int i = 0; i < specs.size(); i++) {
+            order.add(i);
+        }
+        final List<Spec> sorted = specs;
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return sorted.get(b).maxEdge - sorted.get(a).maxEdge;
+            }
+        });
+
+        Output[] outputs = new Output[specs.size()];
+        Bitmap thumbnail = null;
+        directory.mkdirs();
+        try {
+            for (int index : order) {
+                Spec spec = specs.get(index);
+                Bitmap next = scaleToFit(current, spec.maxEdge, pool);
+                if (next != current) {
+                    if (thumbnail == null && thumbWidth > 0
+                            && Math.min(next.getWidth(), next.getHeight()) < Math.min(thumbWidth, thumbHeight)) {
+                        // Too small for the thumbnail from here on
+                        thumbnail = pool.extractThumbnail(current, thumbWidth, thumbHeight);
+                    }
+                    pool.put(current);
+                    current = next;
+                }
+                File file = new File(directory, baseName + "-" + spec.maxEdge + ".jpg");
+                write(current, file, spec.quality);
+                outputs[index] = new Output(spec, file, current.getWidth(), current.getHeight());
+            }
+            if (thumbnail == null && thumbWidth > 0) {
+                thumbnail = pool.extractThumbnail(current, thumbWidth, thumbHeight);
+            }
+        } finally {
+            pool.put(current);
+        }
+        List<Output> result = new ArrayList<Output>();
+        Collections.addAll(result, outputs);
+        return new Result(result, thumbnail);
+    }
+
+    /**
+     * @return a scaled copy whose longest edge is maxEdge, or the bitmap
+     *         itself if it already fits
+     */
+    private static Bitmap scaleToFit(Bitmap bitmap, int maxEdge, BitmapPool pool) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int longest = Math.max(width, height);
+        if (longest <= maxEdge) {
+            return bitmap;
+        }
+        double scale = (double) maxEdge / longest;
+        return pool.scale(bitmap, Math.max(1, (int) Math.round(width * scale)),
+                Math.max(1, (int) Math.round(height * scale)));
+    }
+
+    private static void write(Bitmap bitmap, File file, int quality) throws IOException {
+        FileOutputStream os = new FileOutputStream(file);
+        try {
+            if (!bitmap.compress(Bitmap.CompressFormat.JPEG, quality, os)) {
+                throw new IOException("Unable to encode " + file);
+            }
+        } finally {
+            os.close();
+        }
+    }
+}
@@ -0,0 +1,415 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.mediacapture;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Reads duration, dimensions and codecs out of MP4 / 3GPP (ISO base media)
+ * files by walking their box structure, without starting a decoder.
+ * Only the moov box is mapped; the media data itself is never touched.
+ *
+ * This class has no Android dependencies.
+ */
+public class IsoMediaParser {
+
+    // Guards against nonsense sizes in corrupt files
+    private static final long MAX_MOOV_SIZE = 64 * 1024 * 1024;
+    private static final int MAX_DEPTH = 8;
+
+    /**
+     * What the parser found. Fields it could not determine are left at 0 / "".
+     */
+    public static class Info {
+        public String majorBrand = "";
+        public long durationMs;
+        public int width;
+        public int height;
+        public long bitrate;
+        public boolean hasVideo;
+        public boolean hasAudio;
+        final List<String> codecList = new ArrayList<String>();
+
+        public String getCodecs() {
+            StringBuilder sb = new StringBuilder();
+            for (String codec : codecList) {
+                if (sb.length() > 0) {
+                    sb.append(',');
+                }
+                sb.append(codec);
+            }
+            return sb.toString();
+        }
+    }
+
+    // Per-track state while walking a trak box
+    private static class Track {
+        String handler = "";
+        long timescale;
+        long duration;
+        int width;
+        int height;
+        String codec;
+    }
+
+    /**
+     * Parses the given file.
+     *
+     * @return the media info, or null if the file isn't an ISO media file or
+     *         has no readable moov box
+     */
+    public static Info parse(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            return parse(in.getChannel());
+        } finally {
+            in.close();
+        }
+    }
+
+    public static Info parse(FileChannel channel) throws IOException {
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(16);
+        Info info = new Info();
+        boolean sawKnownBox = false;
+        long position = 0;
+
+        while (position + 8 <= size) {
+            header.clear();
+            header.limit(16);
+            readFully(channel, header, position);
+            header.flip();
+            if (header.remaining() < 8) {
+                break;
+            }
+            long boxSize = header.getInt() & 0xffffffffL;
+            int type = header.getInt();
+            int headerSize = 8;
+            if (boxSize == 1) {
+                if (header.remaining() < 8) {
+                    break;
+                }
+                boxSize = header.getLong();
+                headerSize = 16;
+            } else if (boxSize == 0) {
+                boxSize = size - position;
+            }
+            if (boxSize < headerSize) {
+                break;
+            }
+
+            if (type == fourcc("ftyp")) {
+                sawKnownBox = true;
+                if (header.remaining() >= 4) {
+                    info.majorBrand = fourccToString(header.getInt());
+                }
+            } else if (type == fourcc("moov")) {
+                long bodySize = Math.min(boxSize, size - position) - headerSize;
+                if (bodySize > MAX_MOOV_SIZE) {
+                    return null;
+                }
+                ByteBuffer moov = channel.map(FileChannel.MapMode.READ_ONLY, position + headerSize, bodySize);
+                moov.order(ByteOrder.BIG_ENDIAN);
+                try {
+                    parseMoov(moov, info);
+                } catch (BufferUnderflowException e) {
+                    // Truncated box, keep whatever was read before it
+                } catch (IndexOutOfBoundsException e) {
+                    // Same as above, from an absolute get()
+                }
+                if (info.durationMs > 0) {
+                    info.bitrate = size * 8 * 1000 / info.durationMs;
+                }
+                return info;
+            } else if (type == fourcc("mdat") || type == fourcc("free") || type == fourcc("skip")
+                    || type == fourcc("wide") || type == fourcc("uuid")) {
+                sawKnownBox = true;
+            } else if (!sawKnownBox) {
+                // The first box of every ISO media file is one of the above
+                return null;
+            }
+            position += boxSize;
+        }
+        return null;
+    }
+
+    private static void parseMoov(ByteBuffer moov, Info info) {
+        long movieTimescale = 0;
+        long movieDuration = 0;
+        long longestTrackMs = 0;
+
+        // A short inner box throws out of the loop; the finally keeps the
+        // duration of whatever was read before it
+        try {
+            while (moov.remaining() >= 8) {
+                int type = boxType(moov);
+                ByteBuffer box = nextBox(moov);
+                if (box == null) {
+                    break;
+                }
+                if (type == fourcc("mvhd")) {
+                    int version = box.get() & 0xff;
+                    skip(box, 3 + (version == 1 ? 16 : 8));
+                    movieTimescale = box.getInt() & 0xffffffffL;
+                    movieDuration = version == 1 ? box.getLong() : box.getInt() & 0xffffffffL;
+                } else if (type == fourcc("trak")) {
+                    Track track = new Track();
+                    parseContainer(box, track, 0);
+                    addTrack(info, track);
+                    if (track.timescale > 0) {
+                        longestTrackMs = Math.max(longestTrackMs, track.duration * 1000 / track.timescale);
+                    }
+                }
+            }
+        } finally {
+            if (movieTimescale > 0 && movieDuration > 0 && movieDuration != 0xffffffffL) {
+                info.durationMs = movieDuration * 1000 / movieTimescale;
+            } else {
+                info.durationMs = longestTrackMs;
+            }
+        }
+    }
+
+    private static void addTrack(Info info, Track track) {
+        if ("vide".equals(track.handler)) {
+            info.hasVideo = true;
+            if (info.width == 0 && info.height == 0) {
+                info.width = track.width;
+                info.height = track.height;
+            }
+        } else if ("soun".equals(track.handler)) {
+            info.hasAudio = true;
+        } else {
+            return;
+        }
+        if (track.codec != null && !info.codecList.contains(track.codec)) {
+            info.codecList.add(track.codec);
+        }
+    }
+
+    private static void parseContainer(ByteBuffer container, Track track, int depth) {
+        if (depth > MAX_DEPTH) {
+            return;
+        }
+        while (container.remaining() >= 8) {
+            int type = boxType(container);
+            ByteBuffer box = nextBox(container);
+            if (box == null) {
+                return;
+            }
+            if (type == fourcc("mdia") || type == fourcc("minf") || type == fourcc("stbl")) {
+                parseContainer(box, track, depth + 1);
+            } else if (type == fourcc("tkhd")) {
+                int version = box.get() & 0xff;
+                skip(box, 3 + (version == 1 ? 84 : 72));
+                // 16.16 fixed point
+                int width = box.getInt() >>> 16;
+                int height = box.getInt() >>> 16;
+                if (width > 0 && height > 0) {
+                    track.width = width;
+                    track.height = height;
+                }
+            } else if (type == fourcc("mdhd")) {
+                int version = box.get() & 0xff;
+                skip(box, 3 + (version == 1 ? 16 : 8));
+                track.timescale = box.getInt() & 0xffffffffL;
+                track.duration = version == 1 ? box.getLong() : box.getInt() & 0xffffffffL;
+            } else if (type == fourcc("hdlr")) {
+                skip(box, 8);
+                track.handler = fourccToString(box.getInt());
+            } else if (type == fourcc("stsd")) {
+                parseSampleDescription(box, track);
+            }
+        }
+    }
+
+    private static void parseSampleDescription(ByteBuffer stsd, Track track) {
+        skip(stsd, 4);
+        long entries = stsd.getInt() & 0xffffffffL;
+        if (entries == 0) {
+            return;
+        }
+        int format = boxType(stsd);
+        ByteBuffer entry = nextBox(stsd);
+        if (entry == null) {
+            return;
+        }
+        String name = fourccToString(format).trim();
+        track.codec = name;
+
+        if ("vide".equals(track.handler)) {
+            // VisualSampleEntry: 6 reserved, 2 data ref index, 16 pre-defined,
+            // then width and height, then 50 more bytes before child boxes.
+            skip(entry, 24);
+            int width = entry.getShort() & 0xffff;
+            int height = entry.getShort() & 0xffff;
+            if (track.width == 0 || track.height == 0) {
+                track.width = width;
+                track.height = height;
+            }
+            skip(entry, 50);
+            while (entry.remaining() >= 8) {
+                int childType = boxType(entry);
+                ByteBuffer child = nextBox(entry);
+                if (child == null) {
+                    break;
+                }
+                if (childType == fourcc("avcC") && child.remaining() >= 4) {
+                    child.get();
+                    track.codec = String.format(Locale.US, "%s.%02X%02X%02X", name,
+                            child.get() & 0xff, child.get() & 0xff, child.get() & 0xff);
+                }
+            }
+        } else if ("soun".equals(track.handler)) {
+            // AudioSampleEntry: 28 bytes before child boxes
+            skip(entry, 28);
+            while (entry.remaining() >= 8) {
+                int childType = boxType(entry);
+                ByteBuffer child = nextBox(entry);
+                if (child == null) {
+                    break;
+                }
+                if (childType == fourcc("esds")) {
+                    String esds = parseEsds(child);
+                    if (esds != null) {
+                        track.codec = name + "." + esds;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Extracts "OTI.AOT" (e.g. "40.2" for AAC-LC) from an esds box.
+     */
+    private static String parseEsds(ByteBuffer esds) {
+        skip(esds, 4);
+        if (readDescriptorTag(esds) != 0x03) {
+            return null;
+        }
+        skip(esds, 2);
+        int flags = esds.get() & 0xff;
+        if ((flags & 0x80) != 0) {
+            skip(esds, 2);
+        }
+        if ((flags & 0x40) != 0) {
+            skip(esds, esds.get() & 0xff);
+        }
+        if ((flags & 0x20) != 0) {
+            skip(esds, 2);
+        }
+        if (readDescriptorTag(esds) != 0x04) {
+            return null;
+        }
+        int objectType = esds.get() & 0xff;
+        skip(esds, 12);
+        String result = String.format(Locale.US, "%x", objectType);
+        if (esds.remaining() > 2 && readDescriptorTag(esds) == 0x05) {
+            int audioObjectType = (esds.get() & 0xff) >> 3;
+            if (audioObjectType > 0) {
+                result += "." + audioObjectType;
+            }
+        }
+        return result;
+    }
+
+    // Unlike position(), runs into the same BufferUnderflowException as a
+    // get() when the box is shorter than the field being skipped
+    private static void skip(ByteBuffer buffer, int count) {
+        if (count > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        buffer.position(buffer.position() + count);
+    }
+
+    // Reads a descriptor tag and skips its variable length size field
+    private static int readDescriptorTag(ByteBuffer buffer) {
+        int tag = buffer.get() & 0xff;
+        for (int i = 0; i < 4; i++) {
+            if ((buffer.get() & 0x80) == 0) {
+                break;
+            }
+        }
+        return tag;
+    }
+
+    /**
+     * Returns a buffer covering the body of the next box and advances the
+     * parent past it, or null if the box doesn't fit in its parent. Read the
+     * type first with boxType().
+     */
+    private static ByteBuffer nextBox(ByteBuffer parent) {
+        int start = parent.position();
+        long size = parent.getInt() & 0xffffffffL;
+        parent.getInt();
+        int headerSize = 8;
+        if (size == 1) {
+            size = parent.getLong();
+            headerSize = 16;
+        } else if (size == 0) {
+            size = parent.limit() - start;
+        }
+        if (size < headerSize || size > parent.limit() - start) {
+            parent.position(parent.limit());
+            return null;
+        }
+        ByteBuffer box = parent.duplicate();
+        box.order(ByteOrder.BIG_ENDIAN);
+        box.limit(start + (int) size);
+        box.position(start + headerSize);
+        parent.position(start + (int) size);
+        return box;
+    }
+
+    private static int boxType(ByteBuffer parent) {
+        return parent.getInt(parent.position() + 4);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                return;
+            }
+            position += read;
+        }
+    }
+
+    static int fourcc(String s) {
+        return (s.charAt(0) << 24) | (s.charAt(1) << 16) | (s.charAt(2) << 8) | s.charAt(3);
+    }
+
+    static String fourccToString(int value) {
+        char[] chars = new char[4];
+        for (int i = 0; i < 4; i++) {
+            int c = (value >>> (24 - i * 8)) & 0xff;
+            chars[i] = c >= 0x20 && c < 0x7f ? (char) c : '?';
+        }
+        return new String(chars);
+    }
+}
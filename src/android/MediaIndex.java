@@ -0,0 +1,561 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.mediacapture;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * A small persistent key/value store for data derived from media files.
+ *
+ * Records are appended to a log file and never rewritten in place. A hash
+ * table of (key hash, log offset) slots is kept in a second, memory-mapped
+ * file, so a lookup is one probe in the mapped table and one positional
+ * read from the log. Every record carries the size and modification time
+ * of the file it describes; a lookup that passes different values misses
+ * and drops the stale record. Overwritten and dropped records stay in the
+ * log until compact() rewrites it, which it does alongside lookups rather
+ * than blocking them.
+ *
+ * This class has no Android dependencies.
+ */
+public class MediaIndex {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int MAGIC = 0x4d494458; // MIDX
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int SLOT_SIZE = 16;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int MAX_KEY_LENGTH = 4096;
+    private static final int MAX_VALUE_LENGTH = 1024 * 1024;
+    // keyLength + size + mtime + valueLength
+    private static final int RECORD_OVERHEAD = 4 + 8 + 8 + 4;
+    private static final long TOMBSTONE = -1;
+
+    private final File directory;
+    private RandomAccessFile logFile;
+    private FileChannel log;
+    private RandomAccessFile tableFile;
+    private MappedByteBuffer table;
+    private int capacity;
+    // Live records and the log bytes they occupy; the rest of the log is garbage
+    private int count;
+    private int tombstones;
+    private long liveBytes;
+    private boolean compacting;
+
+    public MediaIndex(File directory) throws IOException {
+        this.directory = directory;
+        directory.mkdirs();
+        try {
+            open();
+        } catch (IOException e) {
+            // Unreadable or from an older version, start over
+            close();
+            new File(directory, "index.log").delete();
+            new File(directory, "index.tab").delete();
+            open();
+        }
+    }
+
+    private void open() throws IOException {
+        logFile = new RandomAccessFile(new File(directory, "index.log"), "rw");
+        log = logFile.getChannel();
+        File tab = new File(directory, "index.tab");
+        boolean fresh = tab.length() < HEADER_SIZE;
+        tableFile = new RandomAccessFile(tab, "rw");
+        if (fresh) {
+            log.truncate(0);
+            createTable(INITIAL_CAPACITY);
+        } else {
+            table = tableFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, tableFile.length());
+            if (table.getInt(0) != MAGIC || table.getInt(4) != VERSION) {
+                throw new IOException("Not a media index");
+            }
+            capacity = table.getInt(8);
+            if ((long) HEADER_SIZE + (long) capacity * SLOT_SIZE != tableFile.length()) {
+                throw new IOException("Truncated media index");
+            }
+            count = table.getInt(12);
+            tombstones = table.getInt(16);
+            liveBytes = table.getLong(20);
+        }
+    }
+
+    private void createTable(int newCapacity) throws IOException {
+        tableFile.setLength(0);
+        tableFile.setLength(HEADER_SIZE + (long) newCapacity * SLOT_SIZE);
+        table = tableFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, tableFile.length());
+        capacity = newCapacity;
+        count = 0;
+        tombstones = 0;
+        liveBytes = 0;
+        table.putInt(0, MAGIC);
+        table.putInt(4, VERSION);
+        table.putInt(8, capacity);
+        writeCounters();
+    }
+
+    private void writeCounters() {
+        table.putInt(12, count);
+        table.putInt(16, tombstones);
+        table.putLong(20, liveBytes);
+    }
+
+    /**
+     * Returns the value stored for key, provided it was stored for a file
+     * of the same size and modification time.
+     */
+    public synchronized byte[] get(String key, long size, long lastModified) throws IOException {
+        checkOpen();
+        byte[] keyBytes = key.getBytes(UTF_8);
+        int slot = find(keyBytes, hash(keyBytes));
+        if (slot < 0) {
+            return null;
+        }
+        Record record = readRecord(log, table.getLong(slotOffset(slot) + 8), true);
+        if (record == null) {
+            return null;
+        }
+        if (record.size != size || record.lastModified != lastModified) {
+            removeSlot(slot, record.length());
+            return null;
+        }
+        return record.value;
+    }
+
+    /**
+     * Like get(), but doesn't read the value.
+     */
+    public synchronized boolean contains(String key, long size, long lastModified) throws IOException {
+        checkOpen();
+        byte[] keyBytes = key.getBytes(UTF_8);
+        int slot = find(keyBytes, hash(keyBytes));
+        if (slot < 0) {
+            return false;
+        }
+        Record record = readRecord(log, table.getLong(slotOffset(slot) + 8), false);
+        return record != null && record.size == size && record.lastModified == lastModified;
+    }
+
+    public synchronized void put(String key, long size, long lastModified, byte[] value) throws IOException {
+        checkOpen();
+        byte[] keyBytes = key.getBytes(UTF_8);
+        if (keyBytes.length > MAX_KEY_LENGTH || value.length > MAX_VALUE_LENGTH) {
+            throw new IOException("Entry too large for media index");
+        }
+        long hash = hash(keyBytes);
+        int slot = find(keyBytes, hash);
+        if (slot >= 0) {
+            Record old = readRecord(log, table.getLong(slotOffset(slot) + 8), false);
+            if (old != null) {
+                liveBytes -= old.length();
+            }
+        } else {
+            if ((count + tombstones + 1) * 10L > capacity * 7L) {
+                // Grow if the live entries alone fill half the table,
+                // otherwise just clear out the tombstones
+                rehash((count + 1) * 2L > capacity ? capacity * 2 : capacity);
+            }
+            slot = freeSlot(hash);
+            if (table.getLong(slotOffset(slot) + 8) == TOMBSTONE) {
+                tombstones--;
+            }
+            count++;
+        }
+
+        long offset = log.size();
+        ByteBuffer record = ByteBuffer.allocate(RECORD_OVERHEAD + keyBytes.length + value.length);
+        record.putInt(keyBytes.length).put(keyBytes).putLong(size).putLong(lastModified)
+                .putInt(value.length).put(value);
+        record.flip();
+        while (record.hasRemaining()) {
+            log.write(record, offset + record.position());
+        }
+        liveBytes += record.limit();
+
+        table.putLong(slotOffset(slot), hash);
+        table.putLong(slotOffset(slot) + 8, offset);
+        writeCounters();
+    }
+
+    public synchronized void remove(String key) throws IOException {
+        checkOpen();
+        byte[] keyBytes = key.getBytes(UTF_8);
+        int slot = find(keyBytes, hash(keyBytes));
+        if (slot >= 0) {
+            Record record = readRecord(log, table.getLong(slotOffset(slot) + 8), false);
+            removeSlot(slot, record == null ? 0 : record.length());
+        }
+    }
+
+    /**
+     * @return true if more than half of the log is overwritten or stale records
+     */
+    public synchronized boolean needsCompaction() throws IOException {
+        checkOpen();
+        long logSize = log.size();
+        return logSize > 64 * 1024 && liveBytes < logSize / 2;
+    }
+
+    /**
+     * Rewrites the log with only the live records and rebuilds the table.
+     */
+    public void compact() throws IOException {
+        compact(Long.MAX_VALUE);
+    }
+
+    /**
+     * Compacts the log, also dropping the oldest records until the live
+     * ones take up no more than maxLiveBytes. Live records are copied to
+     * the new log without holding the lock, so lookups and puts carry on
+     * meanwhile; only what was written during the copy is copied again
+     * under the lock, before the logs are swapped.
+     *
+     * @return the number of records dropped
+     */
+    public int compact(long maxLiveBytes) throws IOException {
+        long[] slots;
+        FileChannel source;
+        long end;
+        synchronized (this) {
+            checkOpen();
+            if (compacting) {
+                return 0;
+            }
+            compacting = true;
+            slots = readSlots();
+            source = log;
+            end = log.size();
+        }
+        File newLogPath = new File(directory, "index.log.tmp");
+        RandomAccessFile newLogFile = null;
+        try {
+            newLogFile = new RandomAccessFile(newLogPath, "rw");
+            FileChannel newLog = newLogFile.getChannel();
+            newLog.truncate(0);
+
+            // Live records in log order, so the new log keeps them oldest first
+            int live = 0;
+            for (int i = 0; i < slots.length; i += 2) {
+                if (slots[i] != 0 && slots[i + 1] != TOMBSTONE) {
+                    live++;
+                }
+            }
+            long[] offsets = new long[live];
+            live = 0;
+            for (int i = 0; i < slots.length; i += 2) {
+                if (slots[i] != 0 && slots[i + 1] != TOMBSTONE) {
+                    offsets[live++] = slots[i + 1];
+                }
+            }
+            Arrays.sort(offsets);
+
+            // Over the limit: keep the newest records that fit
+            int first = 0;
+            if (maxLiveBytes != Long.MAX_VALUE) {
+                long kept = 0;
+                first = offsets.length;
+                while (first > 0) {
+                    Record record = readRecord(source, offsets[first - 1], false);
+                    long length = record == null ? 0 : record.length();
+                    if (kept + length > maxLiveBytes) {
+                        break;
+                    }
+                    kept += length;
+                    first--;
+                }
+            }
+
+            // Where each record landed, or -1 if it was left behind
+            long[] moved = new long[offsets.length];
+            int[] lengths = new int[offsets.length];
+            long position = 0;
+            for (int j = 0; j < offsets.length; j++) {
+                Record record = j < first ? null : readRecord(source, offsets[j], true);
+                if (record == null) {
+                    moved[j] = -1;
+                    continue;
+                }
+                moved[j] = position;
+                lengths[j] = record.length();
+                position = append(newLog, position, record);
+            }
+
+            synchronized (this) {
+                checkOpen();
+                int before = count;
+                long[] current = readSlots();
+                long keptBytes = 0;
+                for (int i = 0; i < current.length; i += 2) {
+                    long offset = current[i + 1];
+                    if (current[i] == 0 || offset == TOMBSTONE) {
+                        continue;
+                    }
+                    if (offset >= end) {
+                        // Written during the copy
+                        Record record = readRecord(log, offset, true);
+                        if (record == null) {
+                            current[i] = 0;
+                            continue;
+                        }
+                        current[i + 1] = position;
+                        keptBytes += record.length();
+                        position = append(newLog, position, record);
+                    } else {
+                        int j = Arrays.binarySearch(offsets, offset);
+                        if (j < 0 || moved[j] < 0) {
+                            current[i] = 0;
+                        } else {
+                            current[i + 1] = moved[j];
+                            keptBytes += lengths[j];
+                        }
+                    }
+                }
+                newLog.force(false);
+                newLogFile.close();
+                newLogFile = null;
+
+                // Swap the logs before touching the table; if we die in
+                // between the old offsets simply fail to match their keys
+                // and read as misses.
+                logFile.close();
+                File logPath = new File(directory, "index.log");
+                if (!newLogPath.renameTo(logPath)) {
+                    throw new IOException("Unable to replace " + logPath);
+                }
+                logFile = new RandomAccessFile(logPath, "rw");
+                log = logFile.getChannel();
+
+                createTable(capacity);
+                fillTable(current);
+                liveBytes = keptBytes;
+                writeCounters();
+                return before - count;
+            }
+        } finally {
+            synchronized (this) {
+                compacting = false;
+            }
+            closeQuietly(newLogFile);
+            newLogPath.delete();
+        }
+    }
+
+    public synchronized long getLiveBytes() {
+        return liveBytes;
+    }
+
+    public synchronized int getCount() {
+        return count;
+    }
+
+    public synchronized void close() {
+        closeQuietly(logFile);
+        closeQuietly(tableFile);
+        table = null;
+    }
+
+    private void checkOpen() throws IOException {
+        if (table == null) {
+            throw new IOException("Media index is closed");
+        }
+    }
+
+    private static void closeQuietly(RandomAccessFile file) {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                // Nothing useful to do here
+            }
+        }
+    }
+
+    /**
+     * Resizes the table, leaving the log alone.
+     */
+    private void rehash(int newCapacity) throws IOException {
+        long[] slots = readSlots();
+        long keptBytes = liveBytes;
+        createTable(newCapacity);
+        fillTable(slots);
+        liveBytes = keptBytes;
+        writeCounters();
+    }
+
+    /**
+     * @return the (hash, offset) pair of every slot
+     */
+    private long[] readSlots() {
+        long[] slots = new long[capacity * 2];
+        for (int i = 0; i < capacity; i++) {
+            slots[i * 2] = table.getLong(slotOffset(i));
+            slots[i * 2 + 1] = table.getLong(slotOffset(i) + 8);
+        }
+        return slots;
+    }
+
+    /**
+     * Puts the live entries of readSlots() into a freshly created table.
+     */
+    private void fillTable(long[] slots) {
+        for (int i = 0; i < slots.length; i += 2) {
+            long hash = slots[i];
+            long offset = slots[i + 1];
+            if (hash == 0 || offset == TOMBSTONE) {
+                continue;
+            }
+            int slot = freeSlot(hash);
+            table.putLong(slotOffset(slot), hash);
+            table.putLong(slotOffset(slot) + 8, offset);
+            count++;
+        }
+    }
+
+    private static long append(FileChannel channel, long position, Record record) throws IOException {
+        ByteBuffer bytes = record.encode();
+        while (bytes.hasRemaining()) {
+            channel.write(bytes, position + bytes.position());
+        }
+        return position + bytes.limit();
+    }
+
+    private void removeSlot(int slot, long recordLength) {
+        table.putLong(slotOffset(slot), 0);
+        table.putLong(slotOffset(slot) + 8, TOMBSTONE);
+        count--;
+        tombstones++;
+        liveBytes -= recordLength;
+        writeCounters();
+    }
+
+    private int find(byte[] key, long hash) throws IOException {
+        int slot = (int) ((hash >>> 1) % capacity);
+        for (int i = 0; i < capacity; i++) {
+            long slotHash = table.getLong(slotOffset(slot));
+            long offset = table.getLong(slotOffset(slot) + 8);
+            if (slotHash == 0 && offset != TOMBSTONE) {
+                return -1;
+            }
+            if (slotHash == hash) {
+                Record record = readRecord(log, offset, false);
+                if (record != null && Arrays.equals(record.key, key)) {
+                    return slot;
+                }
+            }
+            slot = (slot + 1) % capacity;
+        }
+        return -1;
+    }
+
+    private int freeSlot(long hash) {
+        int slot = (int) ((hash >>> 1) % capacity);
+        while (table.getLong(slotOffset(slot)) != 0) {
+            slot = (slot + 1) % capacity;
+        }
+        return slot;
+    }
+
+    private static int slotOffset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    private static class Record {
+        byte[] key;
+        long size;
+        long lastModified;
+        int valueLength;
+        byte[] value;
+
+        int length() {
+            return RECORD_OVERHEAD + key.length + valueLength;
+        }
+
+        ByteBuffer encode() {
+            ByteBuffer buffer = ByteBuffer.allocate(length());
+            buffer.putInt(key.length).put(key).putLong(size).putLong(lastModified)
+                    .putInt(value.length).put(value);
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    /**
+     * Reads the record at offset, or returns null if the offset doesn't
+     * point at a complete record (e.g. the log was cut short by a crash).
+     */
+    private static Record readRecord(FileChannel channel, long offset, boolean withValue) throws IOException {
+        long logSize = channel.size();
+        if (offset < 0 || offset + RECORD_OVERHEAD > logSize) {
+            return null;
+        }
+        ByteBuffer length = ByteBuffer.allocate(4);
+        readFully(channel, length, offset);
+        int keyLength = length.getInt(0);
+        if (keyLength < 0 || keyLength > MAX_KEY_LENGTH || offset + RECORD_OVERHEAD + keyLength > logSize) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.allocate(keyLength + 20);
+        readFully(channel, header, offset + 4);
+        Record record = new Record();
+        record.key = new byte[keyLength];
+        header.get(record.key);
+        record.size = header.getLong();
+        record.lastModified = header.getLong();
+        record.valueLength = header.getInt();
+        long valueOffset = offset + RECORD_OVERHEAD + keyLength;
+        if (record.valueLength < 0 || record.valueLength > MAX_VALUE_LENGTH
+                || valueOffset + record.valueLength > logSize) {
+            return null;
+        }
+        if (withValue) {
+            ByteBuffer value = ByteBuffer.allocate(record.valueLength);
+            readFully(channel, value, valueOffset);
+            record.value = value.array();
+        }
+        return record;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of media index");
+            }
+        }
+        buffer.flip();
+    }
+
+    // FNV-1a; the low bit is forced so a live slot never has hash 0
+    private static long hash(byte[] key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash | 1;
+    }
+}
@@ -0,0 +1,268 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.mediacapture;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import org.apache.cordova.LOG;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * Moves captured media from where the capture application left it to its
+ * final location. Both sides are opened as ParcelFileDescriptors so file and
+ * content URIs go through the same FileChannel path, letting the kernel do
+ * the copy with transferTo() instead of a byte[] loop in the Dalvik heap.
+ *
+ * When a Digest is passed in, the bytes have to be seen to be hashed, so
+ * they go through a heap buffer instead and are hashed on the way through.
+ * Either way the source is read only once.
+ */
+public class MediaIngest {
+    private static final String LOG_TAG = "MediaIngest";
+
+    // Used only when transferTo() stops short, e.g. when the provider hands us a pipe.
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * Outcome of a single ingest.
+     */
+    public static class Result {
+        public final long bytes;
+        public final long elapsedNanos;
+
+        Result(long bytes, long elapsedNanos) {
+            this.bytes = bytes;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long bytesPerSecond() {
+            if (elapsedNanos <= 0) {
+                return 0;
+            }
+            return (long) (bytes * (1000000000d / elapsedNanos));
+        }
+    }
+
+    /**
+     * SHA-256 and CRC32 of the bytes that went through a copy or digest pass.
+     */
+    public static class Digest {
+        private final MessageDigest sha256;
+        private final CRC32 crc32 = new CRC32();
+        private String sha256Hex;
+
+        public Digest() {
+            try {
+                sha256 = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                // Every Android release ships SHA-256
+                throw new IllegalStateException(e);
+            }
+        }
+
+        void update(byte[] bytes, int offset, int length) {
+            sha256.update(bytes, offset, length);
+            crc32.update(bytes, offset, length);
+        }
+
+        /**
+         * @return the SHA-256 as lower case hex. Finishes the digest, so no
+         *         more bytes may be added afterwards.
+         */
+        public synchronized String getSha256() {
+            if (sha256Hex == null) {
+                byte[] hash = sha256.digest();
+                StringBuilder sb = new StringBuilder(hash.length * 2);
+                for (byte b : hash) {
+                    sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                    sb.append(Character.forDigit(b & 0xf, 16));
+                }
+                sha256Hex = sb.toString();
+            }
+            return sha256Hex;
+        }
+
+        public String getCrc32() {
+            return String.format(Locale.US, "%08x", crc32.getValue());
+        }
+    }
+
+    /**
+     * Copies the content of one URI to another. Either side may be a file: or
+     * content: URI.
+     *
+     * @param resolver the resolver used to open both URIs
+     * @param source the URI to read from
+     * @param destination the URI to write to, truncated before writing
+     * @return the number of bytes copied and how long it took
+     */
+    public static Result copy(ContentResolver resolver, Uri source, Uri destination) throws IOException {
+        return copy(resolver, source, destination, null);
+    }
+
+    /**
+     * Copies the content of one URI to another, hashing it on the way.
+     *
+     * @param digest receives every byte copied, may be null
+     */
+    public static Result copy(ContentResolver resolver, Uri source, Uri destination, Digest digest)
+            throws IOException {
+        long start = System.nanoTime();
+        FileInputStream in = null;
+        FileOutputStream out = null;
+        try {
+            in = new ParcelFileDescriptor.AutoCloseInputStream(open(resolver, source, "r"));
+            out = new ParcelFileDescriptor.AutoCloseOutputStream(open(resolver, destination, "rwt"));
+            long bytes = digest == null
+                    ? transfer(in.getChannel(), out.getChannel())
+                    : transfer(in.getChannel(), out.getChannel(), digest);
+            Result result = new Result(bytes, System.nanoTime() - start);
+            LOG.d(LOG_TAG, "Ingested %d bytes in %d ms (%d bytes/s)", result.bytes,
+                    result.elapsedNanos / 1000000, result.bytesPerSecond());
+            return result;
+        } finally {
+            closeQuietly(in);
+            closeQuietly(out);
+        }
+    }
+
+    /**
+     * Reads the content of a URI once, for media the capture application
+     * has already stored and we don't copy.
+     *
+     * @param digest receives every byte read
+     * @return the number of bytes read and how long it took
+     */
+    public static Result digest(ContentResolver resolver, Uri source, Digest digest) throws IOException {
+        long start = System.nanoTime();
+        FileInputStream in = null;
+        try {
+            in = new ParcelFileDescriptor.AutoCloseInputStream(open(resolver, source, "r"));
+            long bytes = transfer(in.getChannel(), null, digest);
+            return new Result(bytes, System.nanoTime() - start);
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * @return the size of the content behind a URI, or -1 if it no longer
+     *         exists or can't be opened
+     */
+    public static long size(ContentResolver resolver, Uri uri) {
+        ParcelFileDescriptor pfd = null;
+        try {
+            pfd = open(resolver, uri, "r");
+            return pfd.getStatSize();
+        } catch (FileNotFoundException e) {
+            return -1;
+        } catch (RuntimeException e) {
+            // Providers throw IllegalArgumentException and friends for unknown rows
+            return -1;
+        } finally {
+            closeQuietly(pfd);
+        }
+    }
+
+    private static ParcelFileDescriptor open(ContentResolver resolver, Uri uri, String mode) throws FileNotFoundException {
+        ParcelFileDescriptor pfd = resolver.openFileDescriptor(uri, mode);
+        if (pfd == null) {
+            throw new FileNotFoundException("Unable to open " + uri);
+        }
+        return pfd;
+    }
+
+    static long transfer(FileChannel in, FileChannel out) throws IOException {
+        long size = in.size();
+        long position = 0;
+        while (position < size) {
+            long count = in.transferTo(position, size - position, out);
+            if (count <= 0) {
+                break;
+            }
+            position += count;
+        }
+        if (position < size || size == 0) {
+            // Channels that don't report a size (or refuse transferTo) are drained
+            // through a direct buffer so the bytes still stay out of the Java heap.
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            if (position > 0) {
+                // transferTo() got part of the way, so the channel can seek.
+                // A pipe can't (position() fails with ESPIPE) and is read
+                // from where it is.
+                in.position(position);
+            }
+            while (in.read(buffer) != -1) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    position += out.write(buffer);
+                }
+                buffer.clear();
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Copies through a heap buffer so every byte can be hashed.
+     *
+     * @param out the channel to write to, or null to only read
+     */
+    static long transfer(FileChannel in, FileChannel out, Digest digest) throws IOException {
+        byte[] bytes = new byte[BUFFER_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        long position = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            digest.update(bytes, 0, read);
+            buffer.flip();
+            if (out != null) {
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+            }
+            position += read;
+            buffer.clear();
+        }
+        return position;
+    }
+
+    static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Nothing useful to do here
+            }
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.mediacapture;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Maps file names to mime types without going through MimeTypeMap, and
+ * identifies files from their first bytes when the name isn't enough.
+ *
+ * Extension lookups use a fixed open addressing table built once, with
+ * keys hashed and compared case-insensitively in place, so a lookup
+ * allocates nothing.
+ *
+ * This class has no Android dependencies.
+ */
+public class MimeTypeResolver {
+
+    public static final String AUDIO_3GPP = "audio/3gpp";
+    public static final String VIDEO_3GPP = "video/3gpp";
+    public static final String AUDIO_MP4 = "audio/mp4";
+    public static final String VIDEO_MP4 = "video/mp4";
+
+    private static final String[] EXTENSIONS = {
+        "jpg", "image/jpeg",
+        "jpeg", "image/jpeg",
+        "jpe", "image/jpeg",
+        "png", "image/png",
+        "gif", "image/gif",
+        "webp", "image/webp",
+        "bmp", "image/bmp",
+        "heic", "image/heif",
+        "heif", "image/heif",
+        "avif", "image/avif",
+        "3gp", VIDEO_3GPP,
+        "3gpp", VIDEO_3GPP,
+        "3ga", AUDIO_3GPP,
+        "3g2", "video/3gpp2",
+        "mp4", VIDEO_MP4,
+        "m4v", "video/x-m4v",
+        "m4a", AUDIO_MP4,
+        "mov", "video/quicktime",
+        "mkv", "video/x-matroska",
+        "webm", "video/webm",
+        "avi", "video/x-msvideo",
+        "ts", "video/mp2t",
+        "aac", "audio/aac",
+        "amr", "audio/amr",
+        "awb", "audio/amr-wb",
+        "mp3", "audio/mpeg",
+        "wav", "audio/x-wav",
+        "ogg", "audio/ogg",
+        "oga", "audio/ogg",
+        "opus", "audio/ogg",
+        "flac", "audio/flac",
+        "mid", "audio/midi",
+    };
+
+    // Power of two, at least twice the number of extensions
+    private static final int TABLE_SIZE = 128;
+    private static final char[][] keys = new char[TABLE_SIZE][];
+    private static final String[] values = new String[TABLE_SIZE];
+
+    static {
+        for (int i = 0; i < EXTENSIONS.length; i += 2) {
+            char[] key = EXTENSIONS[i].toCharArray();
+            int slot = hash(key, 0, key.length) & (TABLE_SIZE - 1);
+            while (keys[slot] != null) {
+                slot = (slot + 1) & (TABLE_SIZE - 1);
+            }
+            keys[slot] = key;
+            values[slot] = EXTENSIONS[i + 1];
+        }
+    }
+
+    // Everything IsoMediaParser can read the tracks of
+    private static final String[] ISO_MEDIA_TYPES = {
+        VIDEO_MP4, VIDEO_3GPP, "video/3gpp2", "video/x-m4v", "video/quicktime",
+        AUDIO_MP4, AUDIO_3GPP, "audio/3gpp2", "audio/x-m4a",
+    };
+
+    private static final int SNIFF_SIZE = 16;
+
+    /**
+     * Looks up the mime type for the extension of a path or file name, or
+     * for a bare extension.
+     *
+     * @return the mime type, or null if the extension isn't in the table
+     */
+    public static String forExtension(CharSequence path) {
+        int end = path.length();
+        int start = end;
+        while (start > 0) {
+            char c = path.charAt(start - 1);
+            if (c == '.') {
+                break;
+            }
+            if (c == '/') {
+                // No extension
+                return null;
+            }
+            start--;
+        }
+        if (start == end) {
+            return null;
+        }
+        int slot = hash(path, start, end) & (TABLE_SIZE - 1);
+        while (keys[slot] != null) {
+            if (matches(keys[slot], path, start, end)) {
+                return values[slot];
+            }
+            slot = (slot + 1) & (TABLE_SIZE - 1);
+        }
+        return null;
+    }
+
+    private static int hash(char[] s, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + lower(s[i]);
+        }
+        return h ^ (h >>> 7);
+    }
+
+    private static int hash(CharSequence s, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + lower(s.charAt(i));
+        }
+        return h ^ (h >>> 7);
+    }
+
+    private static boolean matches(char[] key, CharSequence s, int start, int end) {
+        if (key.length != end - start) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (key[i] != lower(s.charAt(start + i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static char lower(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    /**
+     * @return true if the mime type is an audio or video type stored in an
+     *         ISO base media (MP4, 3GPP, QuickTime) container
+     */
+    public static boolean isIsoMedia(String mimeType) {
+        for (String type : ISO_MEDIA_TYPES) {
+            if (type.equals(mimeType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Identifies a file from its content.
+     *
+     * @return the mime type, or null if the format isn't recognised
+     */
+    public static String sniff(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            return sniff(in.getChannel());
+        } finally {
+            in.close();
+        }
+    }
+
+    public static String sniff(FileChannel channel) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(SNIFF_SIZE);
+        while (head.hasRemaining()) {
+            if (channel.read(head, head.position()) < 0) {
+                break;
+            }
+        }
+        head.flip();
+        if (head.remaining() < 12) {
+            return null;
+        }
+        int first = head.getInt(0);
+        if ((first >>> 8) == 0xffd8ff) {
+            return "image/jpeg";
+        }
+        if (first == 0x89504e47) {
+            return "image/png";
+        }
+        if (first == 0x47494638) { // GIF8
+            return "image/gif";
+        }
+        if (first == 0x52494646) { // RIFF
+            switch (head.getInt(8)) {
+                case 0x57415645: return "audio/x-wav"; // WAVE
+                case 0x57454250: return "image/webp"; // WEBP
+                case 0x41564920: return "video/x-msvideo"; // AVI
+                default: return null;
+            }
+        }
+        if (first == 0x2321414d && head.get(4) == 'R') { // #!AMR
+            return head.get(5) == '-' ? "audio/amr-wb" : "audio/amr";
+        }
+        if (first == 0x4f676753) { // OggS
+            return "audio/ogg";
+        }
+        if (first == 0x664c6143) { // fLaC
+            return "audio/flac";
+        }
+        if ((first >>> 8) == 0x494433) { // ID3
+            return "audio/mpeg";
+        }
+        if (head.getInt(4) == 0x66747970) { // ftyp
+            return sniffIsoMedia(channel, head.getInt(8));
+        }
+        return null;
+    }
+
+    private static String sniffIsoMedia(FileChannel channel, int brand) throws IOException {
+        switch (brand) {
+            case 0x68656963: // heic
+            case 0x68656978: // heix
+            case 0x6d696631: // mif1
+                return "image/heif";
+            case 0x61766966: // avif
+                return "image/avif";
+            case 0x4d344120: // "M4A "
+                return AUDIO_MP4;
+            case 0x71742020: // "qt  "
+                return "video/quicktime";
+            default:
+                break;
+        }
+        boolean threeGpp = (brand >>> 8) == 0x336770 // 3gp4, 3gp5, 3gp6...
+                || (brand >>> 8) == 0x336767; // 3gg6
+        // Containers may hold audio only; the tracks decide
+        IsoMediaParser.Info info;
+        try {
+            info = IsoMediaParser.parse(channel);
+        } catch (RuntimeException e) {
+            // Malformed, so leave it to the caller's extension or URI mapping
+            return null;
+        }
+        boolean video = info == null || info.hasVideo || !info.hasAudio;
+        if (threeGpp) {
+            return video ? VIDEO_3GPP : AUDIO_3GPP;
+        }
+        return video ? VIDEO_MP4 : AUDIO_MP4;
+    }
+}
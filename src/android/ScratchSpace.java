@@ -0,0 +1,162 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.mediacapture;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Temporary files written while a capture is processed, such as the file
+ * the camera writes an image to.
+ *
+ * Every file gets a name of its own, made of the session id, a prefix for
+ * this run of the app and a counter, so concurrent sessions and captures
+ * never share a file. Files still in use are never removed. Everything
+ * else is removed by trim() once it is older than the age limit, or,
+ * oldest first, while the directory is over its byte limit.
+ *
+ * This class has no Android dependencies.
+ */
+public class ScratchSpace {
+
+    private final File directory;
+    // Tells this run's files from those a previous run left behind
+    private final String runPrefix = Long.toString(System.currentTimeMillis(), 36);
+    private final AtomicLong counter = new AtomicLong();
+    private final Set<String> inUse = new HashSet<String>();
+
+    public ScratchSpace(File directory) {
+        this.directory = directory;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Creates a new empty file, which stays in use until release(). The
+     * directory is left traversable by other users, as a camera app runs
+     * under its own uid and writes straight into the file it is handed;
+     * the file itself still has to be made writable for it.
+     *
+     * @param extension the file extension, without the dot
+     */
+    public File allocate(int sessionId, String extension) throws IOException {
+        directory.mkdirs();
+        // Also fixes directories created before it was set
+        directory.setExecutable(true, false);
+        while (true) {
+            File file = new File(directory, sessionId + "-" + runPrefix + "-" + counter.incrementAndGet()
+                    + "." + extension);
+            synchronized (this) {
+                if (file.createNewFile()) {
+                    inUse.add(file.getAbsolutePath());
+                    return file;
+                }
+            }
+            if (!directory.isDirectory()) {
+                throw new IOException("Unable to create " + directory);
+            }
+        }
+    }
+
+    /**
+     * Deletes a file from allocate() once it is no longer needed.
+     */
+    public synchronized void release(File file) {
+        if (file == null) {
+            return;
+        }
+        inUse.remove(file.getAbsolutePath());
+        file.delete();
+    }
+
+    /**
+     * Stops treating a file from allocate() as in use, without deleting it,
+     * for a file another app may still be writing. trim() removes it once
+     * it falls outside the limits.
+     */
+    public synchronized void abandon(File file) {
+        if (file != null) {
+            inUse.remove(file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Removes files older than maxAgeMs, then the oldest of the rest until
+     * the directory holds no more than maxBytes. Files in use are kept.
+     *
+     * @return the number of bytes reclaimed
+     */
+    public synchronized long trim(long maxBytes, long maxAgeMs) {
+        List<File> files = new ArrayList<File>();
+        collect(directory, files);
+        Collections.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long x = a.lastModified();
+                long y = b.lastModified();
+                return x < y ? -1 : (x > y ? 1 : 0);
+            }
+        });
+
+        long total = 0;
+        for (File f : files) {
+            total += f.length();
+        }
+        long cutoff = System.currentTimeMillis() - maxAgeMs;
+        long reclaimed = 0;
+        for (File f : files) {
+            if (f.lastModified() >= cutoff && total <= maxBytes) {
+                // Sorted oldest first, so the rest are newer still
+                break;
+            }
+            if (inUse.contains(f.getAbsolutePath())) {
+                continue;
+            }
+            long length = f.length();
+            if (f.delete()) {
+                total -= length;
+                reclaimed += length;
+            }
+        }
+        return reclaimed;
+    }
+
+    private static void collect(File dir, List<File> files) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                collect(child, files);
+            } else {
+                files.add(child);
+            }
+        }
+    }
+}
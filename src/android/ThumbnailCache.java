@@ -0,0 +1,329 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+ */
+package org.apache.cordova.mediacapture;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import org.apache.cordova.LOG;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Two level cache for generated thumbnails: recently used JPEGs stay in
+ * memory, and every encoded thumbnail is kept in a private pack
+ * in the app cache directory. The pack is a MediaIndex: JPEGs are appended
+ * to one log file and found through a memory-mapped table, so there is
+ * one file for all thumbnails rather than one each. Once the pack grows
+ * past its byte limit, compact() drops the oldest thumbnails.
+ */
+public class ThumbnailCache {
+    private static final String LOG_TAG = "ThumbnailCache";
+
+    private static final long DEFAULT_MAX_DISK_BYTES = 20 * 1024 * 1024;
+    private static final int JPEG_QUALITY = 90;
+
+    /**
+     * Identifies a thumbnail by its source file and how it was generated.
+     * A source that has been modified gets a new key, so stale entries are
+     * never returned and simply age out.
+     */
+    public static class Key {
+        final String path;
+        final long lastModified;
+        final long length;
+        final String spec;
+
+        public Key(File source, String spec) {
+            this.path = source.getAbsolutePath();
+            this.lastModified = source.lastModified();
+            this.length = source.length();
+            this.spec = spec;
+        }
+
+        String id() {
+            long hash = 1125899906842597L;
+            String s = path + '|' + lastModified + '|' + length + '|' + spec;
+            for (int i = 0; i < s.length(); i++) {
+                hash = 31 * hash + s.charAt(i);
+            }
+            return String.format(Locale.US, "%016x", hash);
+        }
+
+        String fileName() {
+            return id() + ".jpg";
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return lastModified == other.lastModified && length == other.length
+                    && path.equals(other.path) && spec.equals(other.spec);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = path.hashCode();
+            result = 31 * result + (int) (lastModified ^ (lastModified >>> 32));
+            result = 31 * result + (int) (length ^ (length >>> 32));
+            return 31 * result + spec.hashCode();
+        }
+    }
+
+    // Encoded JPEGs by id, so hits are served without touching the pack
+    private final LruCache<String, byte[]> memory;
+    private final BitmapPool pool;
+    private final File directory;
+    private final long maxDiskBytes;
+    // Opened on first use
+    private volatile MediaIndex pack;
+    private boolean packFailed;
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong memoryEvictions = new AtomicLong();
+    private final AtomicLong diskEvictions = new AtomicLong();
+
+    public ThumbnailCache(File directory) {
+        this(directory, null);
+    }
+
+    /**
+     * @param pool where bitmaps go once they have been encoded, or null to
+     *            recycle them
+     */
+    public ThumbnailCache(File directory, BitmapPool pool) {
+        this(directory, (int) Math.min(Runtime.getRuntime().maxMemory() / 64, Integer.MAX_VALUE),
+                DEFAULT_MAX_DISK_BYTES, pool);
+    }
+
+    public ThumbnailCache(File directory, int maxMemoryBytes, long maxDiskBytes) {
+        this(directory, maxMemoryBytes, maxDiskBytes, null);
+    }
+
+    public ThumbnailCache(File directory, int maxMemoryBytes, long maxDiskBytes, BitmapPool pool) {
+        this.directory = directory;
+        this.pool = pool;
+        this.maxDiskBytes = maxDiskBytes;
+        this.memory = new LruCache<String, byte[]>(maxMemoryBytes) {
+            @Override
+            protected int sizeOf(String id, byte[] value) {
+                return value.length;
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String id, byte[] oldValue, byte[] newValue) {
+                if (evicted) {
+                    memoryEvictions.incrementAndGet();
+                }
+            }
+        };
+    }
+
+    /**
+     * Looks up the thumbnail for the given key.
+     *
+     * @return the id of the stored JPEG, for read(), or null on a miss
+     */
+    public String get(Key key) {
+        String id = key.id();
+        if (memory.get(id) != null) {
+            memoryHits.incrementAndGet();
+            return id;
+        }
+        if (isStored(id)) {
+            diskHits.incrementAndGet();
+            return id;
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Encodes a freshly generated thumbnail and stores it in both tiers.
+     * The cache owns the bitmap from then on.
+     *
+     * @return the id of the stored JPEG, or null if it could not be encoded
+     */
+    public String put(Key key, Bitmap bitmap) {
+        String id = key.id();
+        ByteArrayOutputStream os = new ByteArrayOutputStream(32 * 1024);
+        boolean encoded = bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, os);
+        if (pool != null) {
+            pool.put(bitmap);
+        } else {
+            bitmap.recycle();
+        }
+        if (!encoded) {
+            LOG.e(LOG_TAG, "Unable to encode thumbnail " + id);
+            return null;
+        }
+        byte[] data = os.toByteArray();
+        memory.put(id, data);
+        MediaIndex pack = openPack();
+        if (pack != null) {
+            try {
+                // Keys already change with the source, so no size or mtime
+                pack.put(id, 0, 0, data);
+            } catch (IOException e) {
+                // Still served from memory while it lasts
+                LOG.e(LOG_TAG, "Unable to write thumbnail " + id, e);
+            }
+        }
+        return id;
+    }
+
+    /**
+     * @return the JPEG stored under an id from get() or put(), or null if
+     *         it has since been dropped
+     */
+    public byte[] read(String id) {
+        byte[] data = memory.get(id);
+        if (data != null) {
+            return data;
+        }
+        MediaIndex pack = openPack();
+        if (pack == null) {
+            return null;
+        }
+        try {
+            data = pack.get(id, 0, 0);
+        } catch (IOException e) {
+            LOG.e(LOG_TAG, "Unable to read thumbnail " + id, e);
+            return null;
+        }
+        if (data != null) {
+            memory.put(id, data);
+        }
+        return data;
+    }
+
+    private boolean isStored(String id) {
+        MediaIndex pack = openPack();
+        try {
+            return pack != null && pack.contains(id, 0, 0);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private synchronized MediaIndex openPack() {
+        if (pack == null && !packFailed) {
+            try {
+                pack = new MediaIndex(directory);
+            } catch (IOException e) {
+                LOG.e(LOG_TAG, "Unable to open thumbnail pack in " + directory, e);
+                packFailed = true;
+                return null;
+            }
+            // Thumbnails used to be kept as one JPEG file each
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    if (f.getName().endsWith(".jpg")) {
+                        f.delete();
+                    }
+                }
+            }
+        }
+        return pack;
+    }
+
+    /**
+     * @return true if compact() has work to do: the pack is over its byte
+     *         limit or mostly garbage
+     */
+    public boolean needsCompaction() {
+        MediaIndex pack = openPack();
+        try {
+            return pack != null && (pack.getLiveBytes() > maxDiskBytes || pack.needsCompaction());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Rewrites the pack without overwritten entries. Over the byte limit,
+     * the oldest thumbnails are dropped down to 3/4 of it, so this doesn't
+     * run after every put. Meant for a background thread; lookups and
+     * reads carry on while it runs.
+     */
+    public void compact() {
+        MediaIndex pack = openPack();
+        if (pack == null) {
+            return;
+        }
+        try {
+            if (pack.getLiveBytes() > maxDiskBytes) {
+                diskEvictions.addAndGet(pack.compact(maxDiskBytes * 3 / 4));
+            } else if (pack.needsCompaction()) {
+                pack.compact();
+            }
+        } catch (IOException e) {
+            LOG.e(LOG_TAG, "Unable to compact thumbnail pack", e);
+        }
+    }
+
+    public synchronized void close() {
+        if (pack != null) {
+            pack.close();
+            pack = null;
+        }
+    }
+
+    /**
+     * Releases memory in response to ComponentCallbacks2.onTrimMemory().
+     */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            memory.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            memory.trimToSize(memory.maxSize() / 2);
+        }
+    }
+
+    public JSONObject getStats() throws JSONException {
+        MediaIndex pack = this.pack;
+        JSONObject stats = new JSONObject();
+        stats.put("memoryHits", memoryHits.get());
+        stats.put("diskHits", diskHits.get());
+        stats.put("misses", misses.get());
+        stats.put("memoryEvictions", memoryEvictions.get());
+        stats.put("diskEvictions", diskEvictions.get());
+        stats.put("memoryBytes", memory.size());
+        stats.put("maxMemoryBytes", memory.maxSize());
+        stats.put("diskBytes", pack == null ? 0 : pack.getLiveBytes());
+        stats.put("diskEntries", pack == null ? 0 : pack.getCount());
+        stats.put("maxDiskBytes", maxDiskBytes);
+        return stats;
+    }
+}
@@ -62,6 +62,17 @@ exports.defineAutoTests = function () {
                 expect(options).toBeDefined();
                 expect(options.limit).toBeDefined();
             });
+
+            it("capture.spec.13 CaptureImageOptions should default the Android options to off", function () {
+                var options = new CaptureImageOptions();
+                expect(options.streamResults).toBe(false);
+                expect(options.hash).toBe(false);
+                expect(options.dedupe).toBe(false);
+                expect(options.variants).toBeNull();
+                expect(options.normalizeOrientation).toBe(false);
+                expect(options.pipeline).toBe(false);
+                expect(options.direct).toBe(false);
+            });
         });
 
         describe('CaptureVideoOptions', function () {
@@ -110,6 +121,89 @@ exports.defineAutoTests = function () {
                 expect(fileData.size).toBeDefined();
             });
         });
+
+        describe('Format data and statistics', function () {
+            var isAndroid = cordova.platformId === 'android';
+            var missingImage = { fullPath: '/nonexistent/capture-spec.jpg', type: 'image/jpeg' };
+
+            function onError(done) {
+                return function (err) {
+                    expect(err).toBeUndefined();
+                    done();
+                };
+            }
+
+            it("capture.spec.14 should contain getFormatDataBatch, getCaptureStats and getCaptureMetrics functions", function () {
+                expect(typeof navigator.device.capture.getFormatDataBatch).toBe('function');
+                expect(typeof navigator.device.capture.getCaptureStats).toBe('function');
+                expect(typeof navigator.device.capture.getCaptureMetrics).toBe('function');
+            });
+
+            it("capture.spec.15 getFormatDataBatch should complete an empty batch", function (done) {
+                if (!isAndroid) {
+                    pending();
+                }
+                var progress = jasmine.createSpy('progress');
+                navigator.device.capture.getFormatDataBatch([], function (results) {
+                    expect(results).toEqual([]);
+                    expect(progress).not.toHaveBeenCalled();
+                    done();
+                }, onError(done), progress);
+            });
+
+            it("capture.spec.16 getFormatDataBatch should report each file once, in input order", function (done) {
+                if (!isAndroid) {
+                    pending();
+                }
+                var indexes = [];
+                navigator.device.capture.getFormatDataBatch([missingImage, missingImage], function (results) {
+                    expect(results.length).toBe(2);
+                    expect(indexes.sort()).toEqual([0, 1]);
+                    done();
+                }, onError(done), function (index) {
+                    indexes.push(index);
+                });
+            });
+
+            it("capture.spec.17 getCaptureStats should report every cache", function (done) {
+                if (!isAndroid) {
+                    pending();
+                }
+                navigator.device.capture.getCaptureStats(function (stats) {
+                    expect(stats.thumbnailCache).toBeDefined();
+                    expect(typeof stats.thumbnailCache.memoryHits).toBe('number');
+                    expect(stats.executor).toBeDefined();
+                    expect(typeof stats.executor.queueDepth).toBe('number');
+                    expect(stats.bitmapPool).toBeDefined();
+                    expect(typeof stats.bitmapPool.reuseRate).toBe('number');
+                    expect(typeof stats.dedupe.hits).toBe('number');
+                    expect(typeof stats.dedupe.entries).toBe('number');
+                    done();
+                }, onError(done));
+            });
+
+            it("capture.spec.18 getCaptureMetrics should report the formatData stage and reset", function (done) {
+                if (!isAndroid) {
+                    pending();
+                }
+                var capture = navigator.device.capture;
+                capture.getFormatDataBatch([missingImage], function () {
+                    capture.getCaptureMetrics(function (stages) {
+                        var stage = stages.formatData;
+                        expect(stage).toBeDefined();
+                        expect(stage.count).toBeGreaterThan(0);
+                        ['meanMs', 'p50Ms', 'p90Ms', 'p99Ms', 'maxMs', 'bytes'].forEach(function (name) {
+                            expect(typeof stage[name]).toBe('number');
+                        });
+                        expect(stage.p50Ms).not.toBeGreaterThan(stage.maxMs);
+                        capture.getCaptureMetrics(function (afterReset) {
+                            expect(afterReset.formatData).toBeUndefined();
+                            done();
+                        }, onError(done));
+                    }, onError(done), { reset: true });
+                }, onError(done));
+            });
+        });
     });
 };
 
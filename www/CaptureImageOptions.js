@@ -25,6 +25,21 @@
 var CaptureImageOptions = function(){
     // Upper limit of images user can take. Value must be equal or greater than 1.
     this.limit = 1;
+    // The options below are Android only; see the Android Quirks of CaptureImageOptions.
+    // Deliver each MediaFile through mediaFileCallback as soon as it is ready.
+    this.streamResults = false;
+    // Add the sha256 and crc32 of each image to its MediaFile.
+    this.hash = false;
+    // Don't store an image whose bytes match one taken earlier with dedupe.
+    this.dedupe = false;
+    // Downscaled JPEG copies to write of each image, as {maxEdge, quality} objects.
+    this.variants = null;
+    // Store each image upright instead of relying on its EXIF orientation.
+    this.normalizeOrientation = false;
+    // Reopen the camera while the previous shot is being stored.
+    this.pipeline = false;
+    // Have the camera write straight into the media store entry.
+    this.direct = false;
 };
 
 module.exports = CaptureImageOptions;
@@ -43,12 +43,13 @@ utils.extend(MediaFile, File);
  *
  * @param {Function} successCB
  * @param {Function} errorCB
+ * @param {Object} options optional, e.g. {frameStrip: true}
  */
-MediaFile.prototype.getFormatData = function(successCallback, errorCallback) {
+MediaFile.prototype.getFormatData = function(successCallback, errorCallback, options) {
     if (typeof this.fullPath === "undefined" || this.fullPath === null) {
         errorCallback(new CaptureError(CaptureError.CAPTURE_INVALID_ARGUMENT));
     } else {
-        exec(successCallback, errorCallback, "Capture", "getFormatData", [this.localURL, this.type]);
+        exec(successCallback, errorCallback, "Capture", "getFormatData", [this.localURL, this.type, options || {}]);
     }
 };
 
@@ -30,44 +30,67 @@ var exec = require('cordova/exec'),
  * @param {CaptureVideoOptions} options
  */
 function _capture(type, successCallback, errorCallback, options) {
+    // Thumbnails arrive after the result, keyed by the thumbnailId handle.
+    var pendingThumbnails = {};
+    // With options.streamResults the files arrive one at a time.
+    var streamed = [];
+    var toMediaFile = function(media) {
+        var mediaFile = {
+                name : media.name,
+                localURL : media.localURL || media.fullPath,
+                fullPath : media.fullPath,
+                type : media.type,
+                lastModifiedDate : media.lastModifiedDate,
+                size : media.size,
+                fileDuration : media.fileDuration,
+                fileThumbnailPath : media.fileThumbnailPath
+            };
+        if (typeof media.sha256 !== "undefined") {
+            mediaFile.sha256 = media.sha256;
+            mediaFile.crc32 = media.crc32;
+        }
+        if (typeof media.variants !== "undefined") {
+            mediaFile.variants = media.variants;
+        }
+        if (typeof media.orientation !== "undefined") {
+            mediaFile.orientation = media.orientation;
+        }
+        if (typeof media.frameStrip !== "undefined") {
+            mediaFile.frameStrip = media.frameStrip;
+        }
+        if (typeof media.thumbnailId !== "undefined") {
+            mediaFile.thumbnailId = media.thumbnailId;
+            pendingThumbnails[media.thumbnailId] = mediaFile;
+        }
+        return mediaFile;
+    };
     var win = function(pluginResult) {
-        
-        //alert("pluginResult >>>>> " + JSON.stringify(pluginResult));
+        if (!Array.isArray(pluginResult)) {
+            if (pluginResult && pluginResult.event === "thumbnail") {
+                var pending = pendingThumbnails[pluginResult.thumbnailId];
+                if (pending) {
+                    delete pendingThumbnails[pluginResult.thumbnailId];
+                    pending.fileThumbnailPath = pluginResult.fileThumbnailPath;
+                    if (options && typeof options.thumbnailCallback === "function") {
+                        options.thumbnailCallback(pending);
+                    }
+                }
+            } else if (pluginResult && pluginResult.event === "mediaFile") {
+                var mediaFile = toMediaFile(pluginResult.mediaFile);
+                streamed[pluginResult.index] = mediaFile;
+                if (options && typeof options.mediaFileCallback === "function") {
+                    options.mediaFileCallback(mediaFile, pluginResult.index);
+                }
+            } else if (pluginResult && pluginResult.event === "complete") {
+                successCallback(streamed);
+            }
+            return;
+        }
+
         var mediaFiles = [];
         var i;
         for (i = 0; i < pluginResult.length; i++) {
-            
-            var media = pluginResult[i];
-            
-            /*var mediaFile = new MediaFile();
-            mediaFile.name = pluginResult[i].name;
-
-            // Backwards compatibility
-            mediaFile.localURL = pluginResult[i].localURL || pluginResult[i].fullPath;
-            mediaFile.fullPath = pluginResult[i].fullPath;
-            mediaFile.type = pluginResult[i].type;
-            mediaFile.lastModifiedDate = pluginResult[i].lastModifiedDate;
-            mediaFile.size = pluginResult[i].size;
-            
-            mediaFiles.fileDuration = pluginResult[i].fileDuration;
-            mediaFiles.fileThumbnailPath = pluginResult[i].fileThumbnailPath;
-            
-            mediaFiles.push(mediaFile);*/
-            
-
-                            
-            var mediaFile = {
-                    name : media.name,
-                    localURL : media.localURL || media.fullPath,
-                    fullPath : media.fullPath,
-                    type : media.type,
-                    lastModifiedDate : media.lastModifiedDate,
-                    size : media.size,
-                    fileDuration : media.fileDuration,
-                    fileThumbnailPath : media.fileThumbnailPath
-                };
-            
-            mediaFiles.push(mediaFile);
+            mediaFiles.push(toMediaFile(pluginResult[i]));
         }
         successCallback(mediaFiles);
     };
@@ -115,6 +138,59 @@ Capture.prototype.captureVideo = function(successCallback, errorCallback, option
     _capture("captureVideo", successCallback, errorCallback, options);
 };
 
+/**
+ * Retrieves format data for many files in a single call (Android only).
+ * The files are probed in parallel; progressCallback, if given, is called
+ * with (index, mediaFileData) as each one completes.
+ *
+ * @param {MediaFile[]} mediaFiles
+ * @param {Function} successCB called with MediaFileData[] in input order, null for failures
+ * @param {Function} errorCB
+ * @param {Function} progressCB
+ */
+Capture.prototype.getFormatDataBatch = function(mediaFiles, successCallback, errorCallback, progressCallback){
+    var files = [];
+    var results = [];
+    var i;
+    for (i = 0; i < mediaFiles.length; i++) {
+        files.push({ fullPath: mediaFiles[i].fullPath || mediaFiles[i].localURL, type: mediaFiles[i].type });
+        results.push(null);
+    }
+    var win = function(event) {
+        if (event.event === "formatData") {
+            if (event.data) {
+                results[event.index] = event.data;
+            }
+            if (typeof progressCallback === "function") {
+                progressCallback(event.index, event.data || null, event.error);
+            }
+        } else if (event.event === "complete") {
+            successCallback(results);
+        }
+    };
+    exec(win, errorCallback, "Capture", "getFormatDataBatch", [files]);
+};
+
+/**
+ * Reports the plugin's internal cache counters (Android only).
+ *
+ * @param {Function} successCB
+ * @param {Function} errorCB
+ */
+Capture.prototype.getCaptureStats = function(successCallback, errorCallback){
+    exec(successCallback, errorCallback, "Capture", "getCaptureStats", []);
+};
+
+/**
+ * Reports latency percentiles for each post-capture stage (Android only).
+ *
+ * @param {Function} successCB
+ * @param {Function} errorCB
+ * @param {Object} options  {reset: true} clears the histograms after reading
+ */
+Capture.prototype.getCaptureMetrics = function(successCallback, errorCallback, options){
+    exec(successCallback, errorCallback, "Capture", "getCaptureMetrics", [options]);
+};
 
 module.exports = new Capture();
 